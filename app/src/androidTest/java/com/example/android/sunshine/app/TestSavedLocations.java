@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.List;
+
+/*
+    Checks the list of locations the sync adapter keeps up to date, and the per-location status
+    it records.  The preferences touched here are put back in tearDown.
+ */
+public class TestSavedLocations extends AndroidTestCase {
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mSavedKey;
+    private String mOriginalLocation;
+    private String mOriginalSaved;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mSavedKey = mContext.getString(R.string.pref_saved_locations_key);
+        mOriginalLocation = mPrefs.getString(mLocationKey, null);
+        mOriginalSaved = mPrefs.getString(mSavedKey, null);
+        mPrefs.edit().putString(mLocationKey, "94043").remove(mSavedKey).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mOriginalLocation == null) {
+            editor.remove(mLocationKey);
+        } else {
+            editor.putString(mLocationKey, mOriginalLocation);
+        }
+        if (mOriginalSaved == null) {
+            editor.remove(mSavedKey);
+        } else {
+            editor.putString(mSavedKey, mOriginalSaved);
+        }
+        editor.remove(Utility.getLocationStatusKey(mContext, "London,uk")).commit();
+        super.tearDown();
+    }
+
+    public void testPreferredLocationComesFirst() {
+        Utility.addSavedLocation(mContext, "London,uk");
+        Utility.addSavedLocation(mContext, "Paris");
+        mPrefs.edit().putString(mLocationKey, "London,uk").commit();
+
+        List<String> locations = Utility.getSavedLocations(mContext);
+        assertEquals("London,uk", locations.get(0));
+        assertEquals("Paris", locations.get(1));
+        assertEquals("Error: Locations should not repeat", 3, locations.size());
+    }
+
+    public void testOldestLocationIsDropped() {
+        for (int i = 0; i < Utility.MAX_SAVED_LOCATIONS + 2; i++) {
+            Utility.addSavedLocation(mContext, "city" + i);
+        }
+        List<String> locations = Utility.getSavedLocations(mContext);
+        assertEquals(Utility.MAX_SAVED_LOCATIONS, locations.size());
+        assertEquals("94043", locations.get(0));
+        assertFalse(locations.contains("city0"));
+        assertTrue(locations.contains("city" + (Utility.MAX_SAVED_LOCATIONS + 1)));
+    }
+
+    public void testStatusIsPerLocation() {
+        mPrefs.edit().putInt(Utility.getLocationStatusKey(mContext, "London,uk"),
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID).commit();
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext, "London,uk"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN,
+                Utility.getLocationStatus(mContext, "Nowhere"));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares the two ways of inserting many weather rows: bulkInsert with ContentValues, and the
+    METHOD_INSERT_ROWS call with a WeatherRowBatch.  Each size is timed on an empty weather table
+    and the rows/s of both paths are logged.  It also checks that both paths store the same thing.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final long FIRST_DATE = 1419033600000L;  // December 20th, 2014
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    // One row per day, so no row replaces another
+    private WeatherRowBatch createBatch(int count) {
+        WeatherRowBatch batch = new WeatherRowBatch(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(mLocationId, day(i), 800 + i % 4,
+                    "Clear", 10 + i % 5, 20 + i % 7, 50 + i % 30, 1000 + i % 20,
+                    3 + i % 9, i % 360);
+        }
+        return batch;
+    }
+
+    // Dates are stored normalized, so use normalized ones to compare with what comes back
+    private static long day(int i) {
+        return WeatherContract.normalizeDate(FIRST_DATE + i * DAY_IN_MILLIS);
+    }
+
+    private int insertRows(WeatherRowBatch batch) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherEntry.EXTRA_ROWS, batch);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_INSERT_ROWS, null, extras);
+        return result.getInt(WeatherEntry.EXTRA_INSERTED);
+    }
+
+    public void testBothPathsStoreTheSameRow() {
+        WeatherRowBatch batch = createBatch(1);
+        ContentValues expected = batch.toContentValues(0);
+
+        assertEquals(1, insertRows(batch));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        TestUtilities.validateCursor("Error: Batch row doesn't match its ContentValues",
+                cursor, expected);
+        cursor.close();
+    }
+
+    public void testCallReplaces() {
+        insertRows(createBatch(3));
+
+        // Rewrite the last day
+        WeatherRowBatch batch = new WeatherRowBatch();
+        batch.add(mLocationId, day(2), 500, "Rain", 1, 2, 3, 4, 5, 6);
+        assertEquals(1, insertRows(batch));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[] {WeatherEntry.COLUMN_SHORT_DESC}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(3, cursor.getCount());
+        cursor.moveToLast();
+        assertEquals("Rain", cursor.getString(0));
+        cursor.close();
+    }
+
+    public void testBatchSurvivesParceling() {
+        WeatherRowBatch batch = createBatch(5);
+        Parcel parcel = Parcel.obtain();
+        batch.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        WeatherRowBatch copy = WeatherRowBatch.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertEquals(batch.size(), copy.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(batch.toContentValues(i), copy.toContentValues(i));
+        }
+    }
+
+    public void testInsertRates() {
+        for (int count : new int[] {1000, 10000, 100000}) {
+            WeatherRowBatch batch = createBatch(count);
+
+            // Building the ContentValues is part of the cost of that path
+            long start = SystemClock.elapsedRealtime();
+            ContentValues[] values = new ContentValues[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = batch.toContentValues(i);
+            }
+            assertEquals(count,
+                    mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+            long contentValuesMillis = SystemClock.elapsedRealtime() - start;
+            // Let the ContentValues go before timing the other path
+            values = null;
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            start = SystemClock.elapsedRealtime();
+            assertEquals(count, insertRows(batch));
+            long batchMillis = SystemClock.elapsedRealtime() - start;
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            Log.i(LOG_TAG, count + " rows: ContentValues " + rate(count, contentValuesMillis)
+                    + " rows/s, WeatherRowBatch " + rate(count, batchMillis) + " rows/s");
+        }
+    }
+
+    private static long rate(int count, long millis) {
+        return count * 1000L / Math.max(1, millis);
+    }
+}
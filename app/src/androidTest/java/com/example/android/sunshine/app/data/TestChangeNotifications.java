@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Counts how often each consumer of the preferred location would requery during a sync: the
+    forecast list, the detail pane showing one day, and the today and detail widgets.  Each is an
+    observer of the URI it queries, registered for descendants the way a cursor registers.  A sync
+    is the provider call SunshineSyncAdapter makes for one location.
+ */
+public class TestChangeNotifications extends AndroidTestCase {
+    static final String OTHER_LOCATION = "London,uk";
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final int FORECAST_DAYS = 14;
+    static final int DETAIL_DAY = 3;
+
+    private long mLocationId;
+    private long mOtherLocationId;
+
+    private TestUtilities.TestContentObserver mList;
+    private TestUtilities.TestContentObserver mDetail;
+    private TestUtilities.TestContentObserver mTodayWidget;
+    private TestUtilities.TestContentObserver mDetailWidget;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        mOtherLocationId = TestUtilities.insertLocation(mContext, OTHER_LOCATION);
+
+        // Yesterday and the two weeks ahead are stored for both locations
+        sync(mLocationId, -1, FORECAST_DAYS);
+        sync(mOtherLocationId, -1, FORECAST_DAYS);
+
+        String location = TestUtilities.TEST_LOCATION;
+        mList = observe(WeatherEntry.buildWeatherLocationWithStartDate(location, day(0)));
+        mDetail = observe(WeatherEntry.buildWeatherLocationWithDate(location, day(DETAIL_DAY)));
+        mTodayWidget = observe(WeatherEntry.buildWeatherLocationWithStartDate(location, day(0)));
+        mDetailWidget = observe(WeatherEntry.buildWeatherLocationWithStartDate(location, day(0)));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (TestUtilities.TestContentObserver observer
+                : new TestUtilities.TestContentObserver[] {
+                        mList, mDetail, mTodayWidget, mDetailWidget}) {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observer.mHT.quit();
+        }
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private TestUtilities.TestContentObserver observe(Uri uri) {
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        return observer;
+    }
+
+    private static long day(int i) {
+        return WeatherContract.normalizeDate(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+    }
+
+    /**
+     * Writes the given days of a location the way a sync does.
+     */
+    private void sync(long locationId, int firstDay, int dayCount) {
+        WeatherRowBatch rows = new WeatherRowBatch(dayCount);
+        for (int i = firstDay; i < firstDay + dayCount; i++) {
+            rows.add(locationId, day(i), 800, "Clear", 10, 20 + locationId, 50, 1000, 3, 90);
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherEntry.EXTRA_ROWS, rows);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_INSERT_ROWS, null, extras);
+    }
+
+    private void assertRequeries(String message, int list, int detail, int widgets)
+            throws InterruptedException {
+        // Give late notifications time to arrive before counting them
+        Thread.sleep(500);
+        assertEquals(message + ": forecast list", list, mList.mChangeCount);
+        assertEquals(message + ": detail pane", detail, mDetail.mChangeCount);
+        assertEquals(message + ": today widget", widgets, mTodayWidget.mChangeCount);
+        assertEquals(message + ": detail widget", widgets, mDetailWidget.mChangeCount);
+    }
+
+    public void testSyncOfAnotherLocation() throws InterruptedException {
+        sync(mOtherLocationId, 0, FORECAST_DAYS);
+        assertRequeries("Error: Another location's sync woke the preferred location's", 0, 0, 0);
+    }
+
+    public void testSyncOfOneDay() throws InterruptedException {
+        // Only today's forecast changed, so the diff writes one row
+        sync(mLocationId, 0, 1);
+        assertRequeries("Error: A change to today woke another day's detail", 1, 0, 1);
+    }
+
+    public void testFullSync() throws InterruptedException {
+        sync(mLocationId, 0, FORECAST_DAYS);
+        assertRequeries("Error: A sync should wake each consumer once", 1, 1, 1);
+    }
+
+    public void testSyncOfEveryLocation() throws InterruptedException {
+        sync(mOtherLocationId, 0, FORECAST_DAYS);
+        sync(mLocationId, 0, FORECAST_DAYS);
+        // Only the preferred location's own sync wakes its consumers
+        assertRequeries("Error: Each write should wake each consumer at most once", 1, 1, 1);
+    }
+}
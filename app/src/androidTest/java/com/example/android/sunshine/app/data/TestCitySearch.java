@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Checks that city/* finds the bundled cities and the stored locations by the start of any word
+    of their name, stored locations first, and that nothing typed breaks the query.  It also times
+    prefix searches over 200,000 cities and logs the p50/p99.
+ */
+public class TestCitySearch extends AndroidTestCase {
+    public static final String LOG_TAG = TestCitySearch.class.getSimpleName();
+
+    static final String TEST_DATABASE_NAME = "weather_city_test.db";
+    static final int CITY_COUNT = 200000;
+    static final int QUERY_COUNT = 200;
+
+    private static final String[] SYLLABLES = {"ba", "ber", "ca", "dor", "el", "fa", "gra", "ha",
+            "in", "ka", "lo", "ma", "ne", "or", "pa", "ri", "sa", "ton", "va", "zu"};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private String[] search(String typed) {
+        Cursor cursor = mContext.getContentResolver().query(CityEntry.buildCitySearch(typed),
+                new String[] {CityEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        String[] settings = new String[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            settings[i] = cursor.getString(0);
+        }
+        cursor.close();
+        return settings;
+    }
+
+    public void testBundledCitiesAreFound() {
+        assertTrue(Arrays.asList(search("lond")).contains("London,GB"));
+        // Any word of the name, in any case
+        assertTrue(Arrays.asList(search("VIEW")).contains("Mountain View,US"));
+        assertEquals("Error: Every word typed should have to match",
+                Arrays.asList("New York,US"), Arrays.asList(search("new yo")));
+    }
+
+    public void testStoredLocationsComeFirst() {
+        // Named like a bundled city, so both match
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Zurich");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+        assertEquals(Arrays.asList(TestUtilities.TEST_LOCATION, "Zurich,CH"),
+                Arrays.asList(search("zur")));
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertEquals("Error: A deleted location is still suggested",
+                Arrays.asList("Zurich,CH"), Arrays.asList(search("zur")));
+    }
+
+    public void testQuerySyntaxIsIgnored() {
+        for (String typed : new String[] {"\"", "-lon", "lon OR par", "*", "lon\"*", "NEAR"}) {
+            search(typed);
+        }
+        assertEquals(0, search("\"").length);
+        assertEquals("lon* or* par*", CitySearch.buildMatchQuery("lon OR par"));
+    }
+
+    public void testSearchLatency() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            Random random = new Random(42);
+            populate(db, random);
+
+            long[] micros = new long[QUERY_COUNT];
+            int found = 0;
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                // Three letters, which the preference asks for before it searches
+                String typed = randomName(random, 2).substring(0, 3);
+                long start = System.nanoTime();
+                Cursor cursor = CitySearch.query(db, null, typed, CityEntry.DEFAULT_LIMIT);
+                found += cursor.getCount();
+                cursor.close();
+                micros[i] = (System.nanoTime() - start) / 1000;
+            }
+            Arrays.sort(micros);
+            assertTrue("Error: No prefix found a city", found > 0);
+
+            Log.i(LOG_TAG, CITY_COUNT + " cities, microseconds p50/p99 per search of "
+                    + CityEntry.DEFAULT_LIMIT + ": " + micros[QUERY_COUNT / 2] + "/"
+                    + micros[QUERY_COUNT * 99 / 100]);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private static void populate(SQLiteDatabase db, Random random) {
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " + CityEntry.TABLE_NAME
+                + " (docid, " + CityEntry.COLUMN_NAME + ", " + CityEntry.COLUMN_LOCATION_SETTING
+                + ") VALUES (?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 1; i <= CITY_COUNT; i++) {
+                String name = randomName(random, 2 + random.nextInt(3))
+                        + (random.nextInt(4) == 0 ? " " + randomName(random, 2) : "");
+                statement.bindLong(1, i);
+                statement.bindString(2, name);
+                statement.bindString(3, name + ",XX");
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    private static String randomName(Random random, int syllables) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < syllables; i++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name.toString();
+    }
+}
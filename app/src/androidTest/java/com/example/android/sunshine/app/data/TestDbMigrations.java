@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+    Upgrades a populated database from every version WeatherDbHelper can migrate, and checks that
+    the rows survive and that the result has the same schema onCreate builds.  Older versions are
+    made by running the migrations on the version 2 schema, which is kept here as it shipped.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+    static final String TEST_DATABASE_NAME = "weather_migration_test.db";
+
+    // The schema of version 2, the oldest with a migration.  Don't change these.
+    static final String V2_CREATE_LOCATION_TABLE = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL );";
+    static final String V2_CREATE_WEATHER_TABLE = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMigrationsAreInOrder() {
+        int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+        for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+            assertEquals("Error: Missing migration", version + 1, migration.toVersion);
+            version = migration.toVersion;
+        }
+        assertEquals("Error: The last migration must reach DATABASE_VERSION",
+                WeatherDbHelper.DATABASE_VERSION, version);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        TreeMap<String, List<String>> freshSchema = createFreshSchema();
+
+        for (int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(TEST_DATABASE_NAME);
+            long locationRowId = createPopulatedDatabase(version);
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: Location lost upgrading from version " + version,
+                    cursor, TestUtilities.createNorthPoleLocationValues());
+            cursor.close();
+
+            cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: Weather lost upgrading from version " + version,
+                    cursor, TestUtilities.createWeatherValues(locationRowId));
+            cursor.close();
+
+            assertEquals("Error: Upgrading from version " + version
+                    + " doesn't give the schema onCreate makes", freshSchema, readSchema(db));
+            dbHelper.close();
+        }
+    }
+
+    public void testTooOldVersionStartsOver() {
+        SQLiteDatabase db = openTestDatabase();
+        db.execSQL(V2_CREATE_LOCATION_TABLE);
+        db.insert("location", null, TestUtilities.createNorthPoleLocationValues());
+        db.setVersion(WeatherDbHelper.OLDEST_MIGRATED_VERSION - 1);
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+        Cursor cursor = dbHelper.getWritableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    private SQLiteDatabase openTestDatabase() {
+        File path = mContext.getDatabasePath(TEST_DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        return SQLiteDatabase.openOrCreateDatabase(path, null);
+    }
+
+    /**
+     * Builds the database as it was at the given version, with one location and one day in it.
+     *
+     * @return the row ID of the location
+     */
+    private long createPopulatedDatabase(int version) {
+        SQLiteDatabase db = openTestDatabase();
+        try {
+            db.execSQL(V2_CREATE_LOCATION_TABLE);
+            db.execSQL(V2_CREATE_WEATHER_TABLE);
+            long locationRowId = db.insert("location", null,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertTrue(locationRowId != -1);
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            assertTrue(db.insert("weather", null, weatherValues) != -1);
+
+            WeatherDbHelper.migrate(db, WeatherDbHelper.OLDEST_MIGRATED_VERSION, version);
+            db.setVersion(version);
+            return locationRowId;
+        } finally {
+            db.close();
+        }
+    }
+
+    private TreeMap<String, List<String>> createFreshSchema() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+        try {
+            return readSchema(dbHelper.getWritableDatabase());
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * @return every table, index and trigger by name, with the columns of each table
+     */
+    private static TreeMap<String, List<String>> readSchema(SQLiteDatabase db) {
+        TreeMap<String, List<String>> schema = new TreeMap<>();
+        Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (objects.moveToNext()) {
+                List<String> columns = new ArrayList<>();
+                if ("table".equals(objects.getString(0))) {
+                    Cursor info = db.rawQuery("PRAGMA table_info(" + objects.getString(1) + ")",
+                            null);
+                    int nameIndex = info.getColumnIndex("name");
+                    int typeIndex = info.getColumnIndex("type");
+                    int notNullIndex = info.getColumnIndex("notnull");
+                    while (info.moveToNext()) {
+                        columns.add(info.getString(nameIndex) + " " + info.getString(typeIndex)
+                                + (info.getInt(notNullIndex) != 0 ? " NOT NULL" : ""));
+                    }
+                    info.close();
+                    // ALTER TABLE can only append, so the order may differ from onCreate's
+                    Collections.sort(columns);
+                }
+                schema.put(objects.getString(0) + " " + objects.getString(1), columns);
+            }
+        } finally {
+            objects.close();
+        }
+        return schema;
+    }
+}
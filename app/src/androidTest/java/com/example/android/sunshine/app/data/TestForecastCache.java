@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the provider's forecast cache: that repeated queries are hits, that a write drops the
+    results of its location and only those, and that the counters add up.
+ */
+public class TestForecastCache extends AndroidTestCase {
+    static final String OTHER_LOCATION = "London,uk";
+
+    private long mLocationId;
+    private long mOtherLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        mOtherLocationId = TestUtilities.insertLocation(mContext, OTHER_LOCATION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private void insertDay(long locationId, int day) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE) + day * 86400000L);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private int queryCount(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private int[] getStats() {
+        Bundle stats = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_GET_CACHE_STATS, null, null);
+        return new int[] {
+                stats.getInt(WeatherEntry.EXTRA_CACHE_HITS),
+                stats.getInt(WeatherEntry.EXTRA_CACHE_MISSES)
+        };
+    }
+
+    public void testWriteInvalidatesOnlyItsLocation() {
+        if (!ForecastCache.isSupported()) {
+            return;
+        }
+        Uri location = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri otherLocation = WeatherEntry.buildWeatherLocation(OTHER_LOCATION);
+        insertDay(mLocationId, 0);
+        insertDay(mOtherLocationId, 0);
+
+        int[] before = getStats();
+        assertEquals(1, queryCount(location));
+        assertEquals(1, queryCount(otherLocation));
+        assertEquals(1, queryCount(location));
+        int[] after = getStats();
+        assertEquals("Error: The repeated query should be a hit", 1, after[0] - before[0]);
+        assertEquals(2, after[1] - before[1]);
+
+        // A new day for the first location drops its results, not the other location's
+        insertDay(mLocationId, 1);
+        before = after;
+        assertEquals("Error: The cache served rows from before the insert",
+                2, queryCount(location));
+        assertEquals(1, queryCount(otherLocation));
+        after = getStats();
+        assertEquals(1, after[0] - before[0]);
+        assertEquals(1, after[1] - before[1]);
+
+        // The location id form is invalidated the same way
+        Uri byId = WeatherEntry.buildWeatherLocationId(mOtherLocationId);
+        assertEquals(1, queryCount(byId));
+        insertDay(mOtherLocationId, 1);
+        assertEquals(2, queryCount(byId));
+    }
+
+    public void testEvictionAndGeneration() {
+        if (!ForecastCache.isSupported()) {
+            return;
+        }
+        ForecastCache cache = new ForecastCache(8);
+        String[] columns = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC};
+
+        ForecastCache.Key first = new ForecastCache.Key(
+                WeatherProvider.WEATHER_WITH_LOCATION, "first", -1, 0, columns, null);
+        ForecastCache.Key second = new ForecastCache.Key(
+                WeatherProvider.WEATHER_WITH_LOCATION_ID, null, 2, 0, columns, null);
+        cache.put(first, cache.getGeneration(), rows(columns, 2)).close();
+        cache.put(second, cache.getGeneration(), rows(columns, 2)).close();
+
+        // Both fit, and the cursors read back what was stored
+        Cursor cursor = cache.get(first);
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToLast());
+        assertEquals(1, cursor.getLong(0));
+        assertEquals("day 1", cursor.getString(1));
+        cursor.close();
+
+        // A third result pushes out the least recently used
+        ForecastCache.Key third = new ForecastCache.Key(
+                WeatherProvider.WEATHER_WITH_LOCATION, "third", -1, 0, columns, null);
+        cache.put(third, cache.getGeneration(), rows(columns, 2)).close();
+        cache.put(new ForecastCache.Key(WeatherProvider.WEATHER_WITH_LOCATION, "fourth", -1, 0,
+                columns, null), cache.getGeneration(), rows(columns, 2)).close();
+        cache.put(new ForecastCache.Key(WeatherProvider.WEATHER_WITH_LOCATION, "fifth", -1, 0,
+                columns, null), cache.getGeneration(), rows(columns, 2)).close();
+        assertNull(cache.get(second));
+        assertEquals(1, cache.evictionCount());
+
+        // Invalidating by id doesn't count as an eviction
+        cache.invalidateLocation("third", 7);
+        assertNull(cache.get(third));
+        assertNotNull(cache.get(first));
+        assertEquals(1, cache.evictionCount());
+
+        // A result read before an invalidation is served but not kept
+        long generation = cache.getGeneration();
+        cache.invalidateLocation("third", 7);
+        cache.put(third, generation, rows(columns, 2)).close();
+        assertNull(cache.get(third));
+    }
+
+    private static MatrixCursor rows(String[] columns, int count) {
+        MatrixCursor cursor = new MatrixCursor(columns);
+        for (int i = 0; i < count; i++) {
+            cursor.addRow(new Object[] {(long) i, "day " + i});
+        }
+        return cursor;
+    }
+}
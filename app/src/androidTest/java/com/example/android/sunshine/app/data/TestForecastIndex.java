@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Checks that forecast queries are answered from the weather_location_date index, both the
+    weather/* join and the weather/id/# query, and times them on 100 locations with a year of
+    days each, with and without the index.
+ */
+public class TestForecastIndex extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastIndex.class.getSimpleName();
+
+    static final String TEST_DATABASE_NAME = "weather_index_test.db";
+    static final int LOCATION_COUNT = 100;
+    static final int DAY_COUNT = 365;
+    static final int QUERY_COUNT = 200;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final long FIRST_DATE = 1419033600000L;  // December 20th, 2014
+
+    // The columns the forecast list reads
+    static final String[] LIST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // The same without the location columns, for weather/id/#
+    static final String[] WEATHER_LIST_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // What the provider runs for weather/*?date= and weather/id/#?date=
+    static final String JOIN_QUERY = WeatherProvider.sWeatherByLocationSettingQueryBuilder
+            .buildQuery(LIST_COLUMNS, WeatherProvider.sLocationSettingWithStartDateSelection,
+                    null, null, SORT_ORDER, null);
+    static final String ID_QUERY = "SELECT " + join(WEATHER_LIST_COLUMNS) + " FROM "
+            + WeatherEntry.TABLE_NAME + " WHERE "
+            + WeatherProvider.sLocationIdWithStartDateSelection + " ORDER BY " + SORT_ORDER;
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder builder = new StringBuilder();
+        for (String column : columns) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(column);
+        }
+        return builder.toString();
+    }
+
+    private static String explain(SQLiteDatabase db, String sql, String... args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detailIndex)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+
+    // Plan lines read "SEARCH TABLE name ..." or, on newer SQLite, "SEARCH name ..."
+    private static boolean readsTable(String plan, String table) {
+        for (String line : plan.split("\n")) {
+            if (line.matches("(SEARCH|SCAN)( TABLE)? " + table + "\\b.*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void testJoinUsesCoveringIndex() {
+        String plan = explain(mDbHelper.getReadableDatabase(), JOIN_QUERY, "94043", "0");
+        assertTrue("Error: weather/* doesn't use the index:\n" + plan,
+                plan.contains("COVERING INDEX " + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX));
+        assertFalse("Error: weather/* sorts in a temporary tree:\n" + plan,
+                plan.contains("TEMP B-TREE"));
+    }
+
+    public void testLocationIdQueryUsesCoveringIndex() {
+        String plan = explain(mDbHelper.getReadableDatabase(), ID_QUERY, "1", "0");
+        assertTrue("Error: weather/id/# doesn't use the index:\n" + plan,
+                plan.contains("COVERING INDEX " + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX));
+        assertFalse("Error: weather/id/# reads the location table:\n" + plan,
+                readsTable(plan, LocationEntry.TABLE_NAME));
+        assertFalse("Error: weather/id/# sorts in a temporary tree:\n" + plan,
+                plan.contains("TEMP B-TREE"));
+    }
+
+    public void testLocationIdUriMatchesSettingUri() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        // The provider normalizes dates, so store one that compares equal afterwards
+        weatherValues.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationIdWithStartDate(locationRowId,
+                        TestUtilities.TEST_DATE),
+                null, null, null, SORT_ORDER);
+        TestUtilities.validateCursor("Error: weather/id/# doesn't return the location's weather",
+                cursor, weatherValues);
+        cursor.close();
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testQueryLatency() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        populate(db);
+
+        long[] joinIndexed = time(db, JOIN_QUERY, true);
+        long[] idIndexed = time(db, ID_QUERY, false);
+        db.execSQL("DROP INDEX " + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX);
+        long[] joinScanned = time(db, JOIN_QUERY, true);
+        long[] idScanned = time(db, ID_QUERY, false);
+
+        Log.i(LOG_TAG, LOCATION_COUNT + " locations x " + DAY_COUNT
+                + " days, microseconds p50/p99 without -> with the index:"
+                + " weather/* " + joinScanned[0] + "/" + joinScanned[1]
+                + " -> " + joinIndexed[0] + "/" + joinIndexed[1]
+                + " | weather/id/# " + idScanned[0] + "/" + idScanned[1]
+                + " -> " + idIndexed[0] + "/" + idIndexed[1]);
+    }
+
+    private static void populate(SQLiteDatabase db) {
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO "
+                + WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", "
+                + WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES + ")"
+                + " VALUES (?, ?, 'Clear', 800, 10, 20, 50, 1000, 3, 90)");
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        db.beginTransaction();
+        try {
+            // Days are inserted a date at a time, the way syncs add them
+            long[] locationIds = new long[LOCATION_COUNT];
+            for (int i = 0; i < LOCATION_COUNT; i++) {
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING, "location" + i);
+                locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, location);
+            }
+            for (int day = 0; day < DAY_COUNT; day++) {
+                for (long locationId : locationIds) {
+                    insertWeather.bindLong(1, locationId);
+                    insertWeather.bindLong(2, FIRST_DATE + day * DAY_IN_MILLIS);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertWeather.close();
+        }
+    }
+
+    /**
+     * Runs the query for random locations from the middle of the year on.
+     *
+     * @return p50 and p99 in microseconds
+     */
+    private static long[] time(SQLiteDatabase db, String sql, boolean bySetting) {
+        Random random = new Random(LOCATION_COUNT);
+        long[] latencies = new long[QUERY_COUNT];
+        String startDate = Long.toString(FIRST_DATE + DAY_COUNT / 2 * DAY_IN_MILLIS);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            int location = random.nextInt(LOCATION_COUNT);
+            // The locations went into an empty table, so their row IDs start at 1
+            String key = bySetting ? "location" + location : Integer.toString(location + 1);
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery(sql, new String[] {key, startDate});
+            assertTrue(cursor.getCount() > 0);
+            cursor.close();
+            latencies[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(latencies);
+        return new long[] {latencies[QUERY_COUNT / 2], latencies[QUERY_COUNT * 99 / 100]};
+    }
+}
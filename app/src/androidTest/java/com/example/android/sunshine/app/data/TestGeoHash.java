@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Checks the geohashes against known values, that location/near finds exactly the stored
+    locations within the radius, nearest first, and that moving a location moves its geohash.
+ */
+public class TestGeoHash extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private void insertLocation(String locationSetting, double latitude, double longitude) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, latitude);
+        values.put(LocationEntry.COLUMN_COORD_LONG, longitude);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+    }
+
+    private List<String> findNear(double latitude, double longitude, double radiusMeters) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNear(latitude, longitude, radiusMeters),
+                new String[] {LocationEntry.COLUMN_LOCATION_SETTING, LocationEntry.COLUMN_DISTANCE},
+                null, null, null);
+        List<String> settings = new ArrayList<>();
+        double lastDistance = 0;
+        while (cursor.moveToNext()) {
+            settings.add(cursor.getString(0));
+            assertTrue("Error: Locations aren't sorted by distance",
+                    cursor.getDouble(1) >= lastDistance);
+            assertTrue("Error: A location is outside the radius", cursor.getDouble(1) <= radiusMeters);
+            lastDistance = cursor.getDouble(1);
+        }
+        cursor.close();
+        return settings;
+    }
+
+    public void testEncode() {
+        assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+        assertEquals("ezs42", GeoHash.encode(42.6, -5.6, 5));
+    }
+
+    public void testNearestFirst() {
+        insertLocation("London,GB", 51.5085, -0.1257);
+        insertLocation("Croydon,GB", 51.3762, -0.0982);
+        insertLocation("Paris,FR", 48.8534, 2.3488);
+
+        // From Westminster
+        assertEquals(Arrays.asList("London,GB", "Croydon,GB"), findNear(51.4995, -0.1248, 20000));
+        assertEquals(Arrays.asList("London,GB", "Croydon,GB", "Paris,FR"),
+                findNear(51.4995, -0.1248, 400000));
+        assertEquals(0, findNear(40.7143, -74.006, 20000).size());
+    }
+
+    public void testAcrossCellEdges() {
+        // Either side of the antimeridian and of the equator, where neighbouring cells have
+        // nothing in common
+        insertLocation("Taveuni,FJ", -16.85, 179.99);
+        insertLocation("Rabi,FJ", -16.85, -179.99);
+        assertEquals(Arrays.asList("Taveuni,FJ", "Rabi,FJ"), findNear(-16.85, 179.995, 5000));
+
+        insertLocation("North,XX", 0.01, 30);
+        insertLocation("South,XX", -0.01, 30);
+        assertEquals(Arrays.asList("North,XX", "South,XX"), findNear(0.005, 30, 5000));
+    }
+
+    public void testMatchesFullScan() {
+        Random random = new Random(7);
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            double[] point = {45 + random.nextDouble() * 2, 5 + random.nextDouble() * 2};
+            points.add(point);
+            insertLocation("Place " + i, point[0], point[1]);
+        }
+        for (int i = 0; i < 20; i++) {
+            double latitude = 45 + random.nextDouble() * 2;
+            double longitude = 5 + random.nextDouble() * 2;
+            double radius = 1000 + random.nextDouble() * 50000;
+            int expected = 0;
+            for (double[] point : points) {
+                if (GeoHash.distance(latitude, longitude, point[0], point[1]) <= radius) {
+                    expected++;
+                }
+            }
+            assertEquals("Error: The cells missed a location within the radius",
+                    expected, findNear(latitude, longitude, radius).size());
+        }
+    }
+
+    public void testMovedLocationIsFoundWhereItIs() {
+        insertLocation("London,GB", 51.5085, -0.1257);
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_COORD_LAT, 48.8534);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 2.3488);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values, null, null);
+
+        assertEquals(0, findNear(51.5085, -0.1257, 20000).size());
+        assertEquals(Arrays.asList("London,GB"), findNear(48.8534, 2.3488, 20000));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that the location ID cache learns row IDs from the provider's lookups, and forgets them
+    whenever the location table changes or a batch is rolled back.
+ */
+public class TestLocationIdCache extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testLookupIsCached() {
+        long locationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        assertEquals(-1, LocationIdCache.getId(TestUtilities.TEST_LOCATION));
+
+        // Inserting it again looks it up
+        assertEquals(locationId,
+                TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION));
+        assertEquals(locationId, LocationIdCache.getId(TestUtilities.TEST_LOCATION));
+        assertEquals(TestUtilities.TEST_LOCATION, LocationIdCache.getSetting(locationId));
+    }
+
+    public void testLocationWritesInvalidate() {
+        long locationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_LOCATION_SETTING, "London,uk");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry._ID + " = ?", new String[] {Long.toString(locationId)});
+        assertEquals("Error: The old setting is still cached after an update",
+                -1, LocationIdCache.getId(TestUtilities.TEST_LOCATION));
+
+        TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        assertTrue(LocationIdCache.getId(TestUtilities.TEST_LOCATION) != -1);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertEquals("Error: A deleted location is still cached",
+                -1, LocationIdCache.getId(TestUtilities.TEST_LOCATION));
+    }
+
+    public void testRollbackInvalidates() {
+        // The second insert looks up the row the first wrote, which the last operation's failure
+        // rolls back
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues()).build());
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues()).build());
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: The batch should have failed");
+        } catch (OperationApplicationException | RemoteException e) {
+            // expected
+        }
+        assertEquals("Error: A rolled back location is still cached",
+                -1, LocationIdCache.getId(TestUtilities.TEST_LOCATION));
+    }
+
+    public void testStaleLookupIsNotStored() {
+        long generation = LocationIdCache.getGeneration();
+        LocationIdCache.invalidate();
+        LocationIdCache.put("stale", 42, generation);
+        assertEquals(-1, LocationIdCache.getId("stale"));
+        assertNull(LocationIdCache.getSetting(42));
+    }
+}
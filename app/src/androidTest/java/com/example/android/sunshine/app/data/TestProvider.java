@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -27,6 +29,8 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import java.util.ArrayList;
+
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -512,4 +516,111 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // A batch that inserts, updates and deletes weather rows of a location should tell that
+    // location's observers once, after all of it has been applied.
+    public void testApplyBatchNotifiesOnce() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[] {weatherValues[0], weatherValues[1]});
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 2; i < 5; i++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues[i]).build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[] {Long.toString(WeatherContract.normalizeDate(
+                                TestUtilities.TEST_DATE + 1000*60*60*24))})
+                .withValue(WeatherEntry.COLUMN_SHORT_DESC, "Meteors")
+                .build());
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(
+                                WeatherContract.normalizeDate(TestUtilities.TEST_DATE))})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(operations.size(), results.length);
+        assertEquals("Error: Update should have changed one row", 1, (int) results[3].count);
+        assertEquals("Error: Delete should have removed one row", 1, (int) results[4].count);
+
+        // Give any extra notifications time to arrive before counting them
+        Thread.sleep(500);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: applyBatch should notify once per location",
+                1, weatherObserver.mChangeCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(4, cursor.getCount());
+        cursor.close();
+    }
+
+    // Paging through a location's weather by the last date of each page should return every row
+    // once, in date order.
+    public void testPagedQuery() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        final int pageSize = 4;
+        long afterDate = 0;
+        long previousDate = 0;
+        int rows = 0;
+        int pages = 0;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION,
+                            TestUtilities.TEST_DATE, afterDate, pageSize),
+                    new String[] {WeatherEntry.COLUMN_DATE}, null, null, null);
+            int count = cursor.getCount();
+            assertTrue("Error: A page holds more rows than asked for", count <= pageSize);
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(0);
+                assertTrue("Error: Pages aren't in date order", date > previousDate);
+                previousDate = date;
+                afterDate = date;
+            }
+            cursor.close();
+            rows += count;
+            pages++;
+            if (count < pageSize) {
+                break;
+            }
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rows);
+        assertEquals(3, pages);
+    }
+
+    // A batch whose operations change nothing should not notify at all.
+    public void testApplyBatchWithoutChangesIsSilent() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(
+                                WeatherContract.normalizeDate(TestUtilities.TEST_DATE))})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.CONTENT_URI, true, weatherObserver);
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        Thread.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+        assertEquals(0, weatherObserver.mChangeCount);
+    }
 }
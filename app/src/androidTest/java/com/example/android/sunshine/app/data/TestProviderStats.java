@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+    Checks that ProviderStats counts calls into the right buckets and keeps only the most recent
+    slow calls, newest first.
+ */
+public class TestProviderStats extends AndroidTestCase {
+    private static final long MILLIS = 1000000;
+
+    public void testBuckets() {
+        assertEquals(0, ProviderStats.getBucket(500000));
+        assertEquals(1, ProviderStats.getBucket(MILLIS));
+        assertEquals(6, ProviderStats.getBucket(40 * MILLIS));
+        assertEquals(ProviderStats.BUCKET_MILLIS.length, ProviderStats.getBucket(5000 * MILLIS));
+    }
+
+    public void testCallsAreCountedByOperationAndMatch() {
+        ProviderStats stats = new ProviderStats(50, 4);
+        stats.record("query", WeatherProvider.WEATHER_WITH_LOCATION, null, 14, MILLIS, "main");
+        stats.record("query", WeatherProvider.WEATHER_WITH_LOCATION, null, 14, MILLIS, "main");
+        stats.record("query", WeatherProvider.LOCATION, null, 1, MILLIS, "main");
+        stats.record("bulkInsert", WeatherProvider.WEATHER, null, 14, MILLIS, "main");
+
+        assertEquals(2, stats.getCalls("query", WeatherProvider.WEATHER_WITH_LOCATION));
+        assertEquals(1, stats.getCalls("query", WeatherProvider.LOCATION));
+        assertEquals(1, stats.getCalls("bulkInsert", WeatherProvider.WEATHER));
+        assertEquals(0, stats.getCalls("delete", WeatherProvider.WEATHER));
+    }
+
+    public void testUnknownRowCountsAreLeftOut() {
+        ProviderStats stats = new ProviderStats(50, 2);
+        stats.record("query", WeatherProvider.WEATHER, null, 14, MILLIS, "main");
+        stats.record("query", WeatherProvider.WEATHER, Uri.parse("content://a/slow"), -1,
+                100 * MILLIS, "main");
+
+        StringWriter dump = new StringWriter();
+        stats.dump(new PrintWriter(dump));
+        String text = dump.toString();
+        assertTrue("Error: An unknown count was added to the rows",
+                text.contains("2 calls, 14 rows"));
+        assertTrue(text.contains("content://a/slow: ? rows"));
+    }
+
+    public void testOnlyRecentSlowCallsAreKept() {
+        ProviderStats stats = new ProviderStats(50, 2);
+        stats.record("query", WeatherProvider.WEATHER, Uri.parse("content://a/fast"), 1,
+                MILLIS, "main");
+        for (int i = 1; i <= 3; i++) {
+            stats.record("query", WeatherProvider.WEATHER, Uri.parse("content://a/slow" + i), 1,
+                    100 * MILLIS, "caller" + i);
+        }
+
+        StringWriter dump = new StringWriter();
+        stats.dump(new PrintWriter(dump));
+        String text = dump.toString();
+        assertFalse(text.contains("content://a/fast"));
+        assertFalse("Error: The ring kept more than its capacity",
+                text.contains("content://a/slow1"));
+        assertTrue("Error: Slow calls aren't newest first",
+                text.indexOf("content://a/slow3") < text.indexOf("content://a/slow2"));
+        assertTrue(text.contains("by caller3"));
+        assertTrue(text.contains("(3 in all)"));
+    }
+}
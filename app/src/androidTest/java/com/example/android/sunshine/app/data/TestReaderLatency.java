@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Runs bulk writes while several threads read a location's forecast, the way the forecast list,
+    the widgets and Muzei do during a sync, and logs the readers' p50/p99 latency with the
+    rollback journal and with write-ahead logging.  Each run uses a database file of its own.
+ */
+public class TestReaderLatency extends AndroidTestCase {
+    public static final String LOG_TAG = TestReaderLatency.class.getSimpleName();
+
+    static final String TEST_DATABASE_NAME = "weather_latency_test.db";
+    static final int READER_COUNT = 3;
+    static final int WRITE_BATCHES = 20;
+    static final int ROWS_PER_BATCH = 500;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The query behind weather/*, for the one location
+    static final String READER_QUERY = "SELECT * FROM " + WeatherEntry.TABLE_NAME
+            + " INNER JOIN " + LocationEntry.TABLE_NAME + " ON "
+            + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = "
+            + LocationEntry.TABLE_NAME + "." + LocationEntry._ID
+            + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?"
+            + " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC LIMIT 14";
+
+    // Cleared by the writer when it is done, which stops the readers
+    private volatile boolean mWriting;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+        Cursor cursor = dbHelper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    public void testReaderLatencyDuringWrites() throws Exception {
+        long[] rollback = measure(false);
+        long[] wal = measure(true);
+        Log.i(LOG_TAG, "Reader latency during writes, microseconds: rollback journal p50 "
+                + rollback[0] + " p99 " + rollback[1] + " | WAL p50 " + wal[0]
+                + " p99 " + wal[1]);
+    }
+
+    /**
+     * @return the readers' p50 and p99 latency in microseconds
+     */
+    private long[] measure(boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        WeatherDbHelper dbHelper =
+                new WeatherDbHelper(mContext, TEST_DATABASE_NAME, writeAheadLogging);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            final long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertTrue("Error: Failure to insert North Pole Location Values", locationId != -1);
+
+            final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+            mWriting = true;
+            Thread[] readers = new Thread[READER_COUNT];
+            for (int i = 0; i < READER_COUNT; i++) {
+                readers[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        String[] args = {TestUtilities.TEST_LOCATION};
+                        while (mWriting) {
+                            long start = System.nanoTime();
+                            Cursor cursor = db.rawQuery(READER_QUERY, args);
+                            // getCount runs the query and fills the window
+                            cursor.getCount();
+                            cursor.close();
+                            latencies.add((System.nanoTime() - start) / 1000);
+                        }
+                    }
+                };
+                readers[i].start();
+            }
+
+            try {
+                ContentValues values = TestUtilities.createWeatherValues(locationId);
+                long date = TestUtilities.TEST_DATE;
+                for (int batch = 0; batch < WRITE_BATCHES; batch++) {
+                    db.beginTransaction();
+                    try {
+                        for (int row = 0; row < ROWS_PER_BATCH; row++) {
+                            values.put(WeatherEntry.COLUMN_DATE, date);
+                            date += DAY_IN_MILLIS;
+                            db.insert(WeatherEntry.TABLE_NAME, null, values);
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+            } finally {
+                mWriting = false;
+                for (Thread reader : readers) {
+                    reader.join();
+                }
+            }
+
+            assertFalse("Error: No reads finished during the writes", latencies.isEmpty());
+            Collections.sort(latencies);
+            return new long[] {
+                    latencies.get(latencies.size() / 2),
+                    latencies.get(latencies.size() * 99 / 100)
+            };
+        } finally {
+            dbHelper.close();
+        }
+    }
+}
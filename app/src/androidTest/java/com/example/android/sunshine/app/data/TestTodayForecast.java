@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that TodayForecast reads the first forecast from today on, that a write to the
+    location is seen by the next read although the answer is kept in memory, and that an answer
+    read during a write isn't kept.
+ */
+public class TestTodayForecast extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    private long mLocationId;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private void insertDay(int day, double maxTemp) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, mToday + day * DAY_IN_MILLIS);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    public void testReadsTheFirstDayFromToday() {
+        insertDay(-1, 10);
+        insertDay(0, 20);
+        insertDay(1, 30);
+
+        TodayForecast today = TodayForecast.read(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull(today);
+        assertTrue(today.isToday());
+        assertEquals(mToday, today.date);
+        assertEquals(20.0, today.maxTemp);
+        assertEquals(TestUtilities.createWeatherValues(mLocationId)
+                .getAsString(WeatherEntry.COLUMN_SHORT_DESC), today.shortDesc);
+
+        assertNull(TodayForecast.read(mContext, "Nowhere"));
+    }
+
+    public void testWritesAreSeen() {
+        assertNull(TodayForecast.read(mContext, TestUtilities.TEST_LOCATION));
+
+        insertDay(1, 30);
+        TodayForecast today = TodayForecast.read(mContext, TestUtilities.TEST_LOCATION);
+        assertFalse("Error: Tomorrow's forecast was taken for today's", today.isToday());
+
+        insertDay(0, 20);
+        assertEquals(20.0, TodayForecast.read(mContext, TestUtilities.TEST_LOCATION).maxTemp);
+        // Replaces today's row
+        insertDay(0, 25);
+        assertEquals("Error: The answer from before the write was served",
+                25.0, TodayForecast.read(mContext, TestUtilities.TEST_LOCATION).maxTemp);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[] {Long.toString(mToday)});
+        assertEquals(mToday + DAY_IN_MILLIS,
+                TodayForecast.read(mContext, TestUtilities.TEST_LOCATION).date);
+    }
+
+    public void testAnswerReadDuringWriteIsNotKept() {
+        TodaySnapshot snapshot = new TodaySnapshot();
+        Bundle values = new Bundle();
+        values.putDouble(WeatherEntry.COLUMN_MAX_TEMP, 20);
+
+        long generation = snapshot.getGeneration();
+        snapshot.invalidateLocation(TestUtilities.TEST_LOCATION);
+        snapshot.put(TestUtilities.TEST_LOCATION, mToday, generation, values);
+        assertNull(snapshot.get(TestUtilities.TEST_LOCATION, mToday));
+
+        snapshot.put(TestUtilities.TEST_LOCATION, mToday, snapshot.getGeneration(), values);
+        assertNotNull(snapshot.get(TestUtilities.TEST_LOCATION, mToday));
+        assertNull("Error: Yesterday's answer was served today",
+                snapshot.get(TestUtilities.TEST_LOCATION, mToday + DAY_IN_MILLIS));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the daily compaction: past days leave the weather table for the monthly history tables,
+    only the days asked for are kept, and months that have expired are dropped as a whole.
+ */
+public class TestWeatherHistory extends AndroidTestCase {
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final long TODAY = WeatherContract.normalizeDate(1419033600000L);  // December 20th, 2014
+    static final int PAST_DAYS = 40;
+    static final int FUTURE_DAYS = 3;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        WeatherRowBatch rows = new WeatherRowBatch(PAST_DAYS + FUTURE_DAYS);
+        for (int day = -PAST_DAYS; day < FUTURE_DAYS; day++) {
+            rows.add(mLocationId, TODAY + day * DAY_IN_MILLIS, 800, "Clear", 10, 20, 50, 1000,
+                    3, 90);
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherEntry.EXTRA_ROWS, rows);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_INSERT_ROWS, null, extras);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    private Bundle compact(long today, int keepDays) {
+        Bundle extras = new Bundle();
+        extras.putLong(HistoryEntry.EXTRA_TODAY, today);
+        extras.putInt(HistoryEntry.EXTRA_KEEP_DAYS, keepDays);
+        return mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                HistoryEntry.METHOD_COMPACT, null, extras);
+    }
+
+    private int queryCount(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[] {WeatherEntry.COLUMN_DATE}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testPastDaysAreMoved() {
+        Bundle result = compact(TODAY, 30);
+        assertEquals(30, result.getInt(HistoryEntry.EXTRA_ARCHIVED));
+        assertEquals("Error: Only today and after should be left in the weather table",
+                FUTURE_DAYS, queryCount(WeatherEntry.CONTENT_URI));
+
+        Cursor history = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationId(mLocationId),
+                new String[] {WeatherEntry.COLUMN_DATE}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(30, history.getCount());
+        history.moveToFirst();
+        assertEquals(TODAY - 30 * DAY_IN_MILLIS, history.getLong(0));
+        history.moveToLast();
+        assertEquals(TODAY - DAY_IN_MILLIS, history.getLong(0));
+        history.close();
+    }
+
+    public void testNothingKept() {
+        Bundle result = compact(TODAY, 0);
+        assertEquals(0, result.getInt(HistoryEntry.EXTRA_ARCHIVED));
+        assertEquals(FUTURE_DAYS, queryCount(WeatherEntry.CONTENT_URI));
+        assertEquals(0, queryCount(HistoryEntry.CONTENT_URI));
+    }
+
+    public void testExpiredMonthsAreDropped() {
+        // November 20th to December 19th
+        compact(TODAY, 30);
+
+        // Thirty days before this is December 10th, so November has expired but December hasn't.
+        // December 20th to 22nd move as well.
+        long later = TODAY + 20 * DAY_IN_MILLIS;
+        Bundle result = compact(later, 30);
+        assertEquals(3, result.getInt(HistoryEntry.EXTRA_ARCHIVED));
+        assertEquals(1, result.getInt(HistoryEntry.EXTRA_DROPPED_MONTHS));
+        assertEquals("Error: All of December should still be kept",
+                22, queryCount(HistoryEntry.CONTENT_URI));
+
+        result = compact(later + 40 * DAY_IN_MILLIS, 30);
+        assertEquals(1, result.getInt(HistoryEntry.EXTRA_DROPPED_MONTHS));
+        assertEquals(0, queryCount(HistoryEntry.CONTENT_URI));
+    }
+}
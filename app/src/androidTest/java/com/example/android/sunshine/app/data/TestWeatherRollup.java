@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the weekly and monthly rollups match the days they sum up, follow writes to those
+    days, and outlive the weather rows but not their location.  It also times a year of monthly
+    and weekly stats read from the rollups against the same stats computed by a GROUP BY over the
+    weather rows, and logs both.
+ */
+public class TestWeatherRollup extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherRollup.class.getSimpleName();
+
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final long FIRST_DATE = 1419033600000L;  // December 20th, 2014
+    static final int YEAR_DAYS = 365;
+    static final int BENCHMARK_LOCATIONS = 5;
+    static final int TIMED_ROUNDS = 20;
+
+    private static final String[] STATS_PROJECTION = {
+            StatsEntry.COLUMN_START,
+            StatsEntry.COLUMN_DAYS,
+            StatsEntry.COLUMN_MIN_TEMP,
+            StatsEntry.COLUMN_MAX_TEMP,
+            StatsEntry.COLUMN_AVG_MAX_TEMP,
+            StatsEntry.COLUMN_AVG_HUMIDITY
+    };
+
+    // A month of a location's weather rows, added up the way the rollups are
+    private static final String GROUP_BY_MONTH_QUERY = "SELECT " +
+            "strftime('%Y-%m', " + WeatherEntry.COLUMN_DATE + " / 1000, 'unixepoch', 'localtime')" +
+            " AS month, COUNT(*), " +
+            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "AVG(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "AVG(" + WeatherEntry.COLUMN_HUMIDITY + ")" +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?" +
+            " AND " + WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " <= ?" +
+            " GROUP BY month ORDER BY month";
+
+    // The same by week, which strftime starts on Monday too
+    private static final String GROUP_BY_WEEK_QUERY = GROUP_BY_MONTH_QUERY
+            .replace("'%Y-%m'", "'%Y-%W'");
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private static long day(int i) {
+        return WeatherContract.normalizeDate(FIRST_DATE + i * DAY_IN_MILLIS);
+    }
+
+    private static double high(long locationId, int i) {
+        return 20 + (i * 7 + locationId) % 13;
+    }
+
+    private void insertDays(long locationId, int count) {
+        WeatherRowBatch rows = new WeatherRowBatch(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(locationId, day(i), 800, "Clear", 5 + i % 11, high(locationId, i),
+                    40 + i % 50, 1000 + i % 20, 3, 90);
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherEntry.EXTRA_ROWS, rows);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_INSERT_ROWS, null, extras);
+    }
+
+    private Cursor queryStats(String bucket, int fromDay, int toDay) {
+        return mContext.getContentResolver().query(
+                StatsEntry.buildWeatherStats(TestUtilities.TEST_LOCATION, day(fromDay), day(toDay),
+                        bucket), STATS_PROJECTION, null, null, null);
+    }
+
+    public void testWeeksMatchTheirDays() {
+        long locationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        insertDays(locationId, 60);
+
+        Time time = new Time();
+        Cursor cursor = queryStats(StatsEntry.BUCKET_WEEK, 0, 59);
+        int days = 0;
+        while (cursor.moveToNext()) {
+            long start = cursor.getLong(0);
+            assertEquals("Error: A week doesn't start on its Monday", start,
+                    WeatherRollup.getBucketStart(WeatherRollup.BUCKET_WEEK, start, time));
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            int count = 0;
+            for (int i = 0; i < 60; i++) {
+                if (WeatherRollup.getBucketStart(WeatherRollup.BUCKET_WEEK, day(i), time)
+                        == start) {
+                    max = Math.max(max, high(locationId, i));
+                    sum += high(locationId, i);
+                    count++;
+                }
+            }
+            assertEquals(count, cursor.getInt(1));
+            assertEquals(max, cursor.getDouble(3));
+            assertEquals(sum / count, cursor.getDouble(4), 1e-9);
+            days += count;
+        }
+        cursor.close();
+        assertEquals("Error: The weeks don't cover every day", 60, days);
+    }
+
+    public void testWritesUpdateTheirBuckets() {
+        long locationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        insertDays(locationId, 60);
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[] {Long.toString(day(30))});
+
+        for (String bucket : new String[] {StatsEntry.BUCKET_DAY, StatsEntry.BUCKET_WEEK,
+                StatsEntry.BUCKET_MONTH}) {
+            Cursor cursor = queryStats(bucket, 30, 30);
+            assertTrue("Error: No " + bucket + " holds the updated day", cursor.moveToFirst());
+            assertEquals(99.0, cursor.getDouble(3));
+            cursor.close();
+        }
+    }
+
+    public void testRollupsOutliveTheirDays() {
+        long locationId = TestUtilities.insertLocation(mContext, TestUtilities.TEST_LOCATION);
+        insertDays(locationId, 10);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        Cursor cursor = queryStats(StatsEntry.BUCKET_DAY, 0, 9);
+        assertEquals("Error: Deleted days lost their rollups", 10, cursor.getCount());
+        cursor.close();
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        cursor = queryStats(StatsEntry.BUCKET_DAY, 0, 9);
+        assertEquals("Error: A deleted location kept its rollups", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testReadTimes() {
+        long[] locationIds = new long[BENCHMARK_LOCATIONS];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            locationIds[i] = TestUtilities.insertLocation(mContext,
+                    i == 0 ? TestUtilities.TEST_LOCATION : "location" + i);
+            insertDays(locationIds[i], YEAR_DAYS);
+        }
+
+        // Both read the database directly, so the provider's cursors aren't part of the time
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        try {
+            // Whole months, so both cover the same days
+            Cursor rollups = readRollups(db, locationIds[0], WeatherRollup.BUCKET_MONTH);
+            Cursor groups = readGroupBy(db, GROUP_BY_MONTH_QUERY, locationIds[0]);
+            assertEquals(groups.getCount(), rollups.getCount());
+            while (rollups.moveToNext() && groups.moveToNext()) {
+                assertEquals(groups.getInt(1), rollups.getInt(1));
+                assertEquals(groups.getDouble(3), rollups.getDouble(3));
+                assertEquals(groups.getDouble(4), rollups.getDouble(4), 1e-9);
+            }
+            rollups.close();
+            groups.close();
+
+            for (int bucket : new int[] {WeatherRollup.BUCKET_WEEK, WeatherRollup.BUCKET_MONTH}) {
+                String query = bucket == WeatherRollup.BUCKET_WEEK
+                        ? GROUP_BY_WEEK_QUERY : GROUP_BY_MONTH_QUERY;
+                long start = SystemClock.elapsedRealtime();
+                for (int round = 0; round < TIMED_ROUNDS; round++) {
+                    for (long locationId : locationIds) {
+                        drain(readRollups(db, locationId, bucket));
+                    }
+                }
+                long rollupMillis = SystemClock.elapsedRealtime() - start;
+
+                start = SystemClock.elapsedRealtime();
+                for (int round = 0; round < TIMED_ROUNDS; round++) {
+                    for (long locationId : locationIds) {
+                        drain(readGroupBy(db, query, locationId));
+                    }
+                }
+                long groupByMillis = SystemClock.elapsedRealtime() - start;
+
+                Log.i(LOG_TAG, YEAR_DAYS + " days of " + BENCHMARK_LOCATIONS + " locations by "
+                        + (bucket == WeatherRollup.BUCKET_WEEK ? "week" : "month")
+                        + ": rollups " + micros(rollupMillis) + " us, GROUP BY "
+                        + micros(groupByMillis) + " us per read");
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private static Cursor readRollups(SQLiteDatabase db, long locationId, int bucket) {
+        return db.query(StatsEntry.TABLE_NAME,
+                new String[] {StatsEntry.COLUMN_START, StatsEntry.COLUMN_DAYS,
+                        StatsEntry.COLUMN_MIN_TEMP, StatsEntry.COLUMN_MAX_TEMP,
+                        WeatherRollup.COLUMN_SUM_MAX_TEMP + " / " + StatsEntry.COLUMN_DAYS,
+                        WeatherRollup.COLUMN_SUM_HUMIDITY + " / " + StatsEntry.COLUMN_DAYS},
+                StatsEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherRollup.COLUMN_BUCKET + " = ?"
+                        + " AND " + StatsEntry.COLUMN_START + " >= ?"
+                        + " AND " + StatsEntry.COLUMN_START + " <= ?",
+                new String[] {Long.toString(locationId), Integer.toString(bucket),
+                        Long.toString(WeatherRollup.getBucketStart(bucket, day(0), new Time())),
+                        Long.toString(day(YEAR_DAYS - 1))},
+                null, null, StatsEntry.COLUMN_START + " ASC");
+    }
+
+    private static Cursor readGroupBy(SQLiteDatabase db, String query, long locationId) {
+        return db.rawQuery(query, new String[] {Long.toString(locationId),
+                Long.toString(day(0)), Long.toString(day(YEAR_DAYS - 1))});
+    }
+
+    private static void drain(Cursor cursor) {
+        while (cursor.moveToNext()) {
+            cursor.getDouble(4);
+        }
+        cursor.close();
+    }
+
+    private static long micros(long millis) {
+        return millis * 1000 / (TIMED_ROUNDS * BENCHMARK_LOCATIONS);
+    }
+}
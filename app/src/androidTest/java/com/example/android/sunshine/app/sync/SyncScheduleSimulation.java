@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/**
+ * Replays a week of forecast changes against a sync schedule, minute by minute, and reports how
+ * many syncs it took and how stale the stored forecast was.
+ *
+ * A week is recorded as one string per day with one character per local hour, starting at
+ * midnight.  Each character is the number of the 14 forecast days, in hex, that changed on the
+ * server during that hour.  The stored forecast is stale from the first change a sync hasn't
+ * picked up until the sync that does.  The device is taken to be charging on Wi-Fi from 23:00 to
+ * 07:00 and on a metered network otherwise, with a widget placed.
+ */
+class SyncScheduleSimulation {
+    private static final int FORECAST_DAYS = 14;
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int HOME_START_HOUR = 23;
+    private static final int HOME_END_HOUR = 7;
+
+    interface Schedule {
+        /**
+         * @return the seconds until the next sync
+         */
+        int getInterval(double changeRate, int hourOfDay, boolean unmetered, boolean charging);
+    }
+
+    static final Schedule FIXED = new Schedule() {
+        @Override
+        public int getInterval(double changeRate, int hourOfDay, boolean unmetered,
+                               boolean charging) {
+            return SunshineSyncAdapter.SYNC_INTERVAL;
+        }
+    };
+
+    static final Schedule ADAPTIVE = new Schedule() {
+        @Override
+        public int getInterval(double changeRate, int hourOfDay, boolean unmetered,
+                               boolean charging) {
+            return SyncSchedulePolicy.getInterval(SunshineSyncAdapter.SYNC_INTERVAL, changeRate,
+                    hourOfDay, unmetered, charging, true);
+        }
+    };
+
+    static final class Report {
+        final double days;
+        int syncs;
+        long staleMinutes;
+        long worstStaleMinutes;
+
+        Report(double days) {
+            this.days = days;
+        }
+
+        double getSyncsPerDay() {
+            return syncs / days;
+        }
+
+        double getStaleHoursPerDay() {
+            return staleMinutes / (double) MINUTES_PER_HOUR / days;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%.1f syncs/day, stale %.1f h/day, worst %.1f h behind",
+                    getSyncsPerDay(), getStaleHoursPerDay(),
+                    worstStaleMinutes / (double) MINUTES_PER_HOUR);
+        }
+    }
+
+    // The schedule's state as the replay goes
+    private final String[] mWeek;
+    private final Schedule mSchedule;
+    private final Report mReport;
+    private double mChangeRate = SyncSchedulePolicy.DEFAULT_CHANGE_RATE;
+    private int mPendingChanges;
+    private long mStaleSince = -1;
+    private long mNextSync;
+
+    private SyncScheduleSimulation(String[] week, Schedule schedule) {
+        mWeek = week;
+        mSchedule = schedule;
+        mReport = new Report(week.length);
+    }
+
+    static Report replay(String[] week, Schedule schedule) {
+        SyncScheduleSimulation simulation = new SyncScheduleSimulation(week, schedule);
+        simulation.run();
+        return simulation.mReport;
+    }
+
+    private void run() {
+        int hours = mWeek.length * 24;
+        for (int hour = 0; hour < hours; hour++) {
+            long minute = hour * MINUTES_PER_HOUR;
+            while (mNextSync <= minute) {
+                sync(mNextSync);
+            }
+            int changes = Character.digit(mWeek[hour / 24].charAt(hour % 24), 16);
+            if (changes > 0) {
+                mPendingChanges += changes;
+                if (mStaleSince == -1) {
+                    mStaleSince = minute;
+                }
+            }
+        }
+        long end = hours * MINUTES_PER_HOUR;
+        while (mNextSync < end) {
+            sync(mNextSync);
+        }
+        if (mStaleSince != -1) {
+            mReport.staleMinutes += end - mStaleSince;
+        }
+    }
+
+    private void sync(long minute) {
+        mReport.syncs++;
+        if (mStaleSince != -1) {
+            long stale = minute - mStaleSince;
+            mReport.staleMinutes += stale;
+            mReport.worstStaleMinutes = Math.max(mReport.worstStaleMinutes, stale);
+        }
+        mChangeRate = SyncSchedulePolicy.updateChangeRate(mChangeRate,
+                Math.min(mPendingChanges, FORECAST_DAYS) / (double) FORECAST_DAYS);
+        mPendingChanges = 0;
+        mStaleSince = -1;
+
+        int hourOfDay = (int) (minute / MINUTES_PER_HOUR % 24);
+        boolean home = hourOfDay >= HOME_START_HOUR || hourOfDay < HOME_END_HOUR;
+        mNextSync = minute + mSchedule.getInterval(mChangeRate, hourOfDay, home, home) / 60;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+
+/*
+    Checks that ForecastDiff only asks for the writes a forecast really needs.  The stored rows are
+    faked with a MatrixCursor, so nothing here touches the database.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+    static final long TEST_LOCATION_ID = 7;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final long FIRST_DATE = 1419033600000L;  // December 20th, 2014
+
+    private ForecastRowBuffer mBuffer;
+    private long[] mDates;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBuffer = new ForecastRowBuffer();
+        ForecastJsonParser.parse(new ByteArrayInputStream(
+                TestForecastParser.readFixture(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)), mBuffer);
+        mDates = new long[mBuffer.size()];
+        for (int i = 0; i < mDates.length; i++) {
+            mDates[i] = FIRST_DATE + i * DAY_IN_MILLIS;
+        }
+    }
+
+    // Stores the buffer's rows [from, to) the way the provider would return them
+    private MatrixCursor storedRows(int from, int to) {
+        MatrixCursor cursor = new MatrixCursor(ForecastDiff.STORED_PROJECTION);
+        for (int row = from; row < to; row++) {
+            cursor.addRow(new Object[] {
+                    100 + row,
+                    mDates[row],
+                    (double) mBuffer.humidity[row],
+                    mBuffer.pressure[row],
+                    mBuffer.windSpeed[row],
+                    mBuffer.windDirection[row],
+                    mBuffer.high[row],
+                    mBuffer.low[row],
+                    mBuffer.description[row],
+                    mBuffer.weatherId[row]
+            });
+        }
+        return cursor;
+    }
+
+    public void testEmptyDatabaseInsertsEverything() {
+        ForecastDiff diff = new ForecastDiff();
+        diff.compare(mBuffer, TEST_LOCATION_ID, mDates, storedRows(0, 0));
+
+        assertEquals(mBuffer.size(), diff.getInsertCount());
+        assertEquals(0, diff.getUpdateCount());
+        assertEquals(0, diff.getUnchangedCount());
+        assertEquals(mBuffer.size(), diff.getInsertRows().size());
+        assertEquals(0, diff.getUpdateRows().size());
+        assertEquals(mBuffer.size(), diff.getOperations(null).size());
+    }
+
+    public void testIdenticalForecastWritesNothing() {
+        ForecastDiff diff = new ForecastDiff();
+        diff.compare(mBuffer, TEST_LOCATION_ID, mDates, storedRows(0, mBuffer.size()));
+
+        assertEquals(0, diff.getInsertCount());
+        assertEquals(0, diff.getUpdateCount());
+        assertEquals(mBuffer.size(), diff.getUnchangedCount());
+        assertEquals(0, diff.getInsertRows().size());
+        assertEquals(0, diff.getUpdateRows().size());
+        assertTrue(diff.getOperations(null).isEmpty());
+        assertFalse(diff.hasChanges());
+    }
+
+    public void testEmptyForecastClearsTheLastCompare() {
+        ForecastDiff diff = new ForecastDiff();
+        diff.compare(mBuffer, TEST_LOCATION_ID, mDates, storedRows(0, 0));
+        assertTrue(diff.hasChanges());
+
+        diff.compare(new ForecastRowBuffer(), TEST_LOCATION_ID, new long[0], null);
+        assertFalse("Error: An empty forecast kept the changes of the one before",
+                diff.hasChanges());
+        assertEquals(0, diff.getInsertRows().size());
+    }
+
+    public void testChangedAndNewDays() {
+        // Everything but the last day is stored, then two stored days change
+        MatrixCursor stored = storedRows(0, mBuffer.size() - 1);
+        mBuffer.high[0] += 1;
+        mBuffer.description[3] = "Asteroids";
+
+        ForecastDiff diff = new ForecastDiff();
+        diff.compare(mBuffer, TEST_LOCATION_ID, mDates, stored);
+
+        assertEquals(1, diff.getInsertCount());
+        assertEquals(2, diff.getUpdateCount());
+        assertEquals(mBuffer.size() - 3, diff.getUnchangedCount());
+        assertEquals(1, diff.getInsertRows().size());
+        assertEquals("Error: A changed day isn't written as an update",
+                2, diff.getUpdateRows().size());
+        assertEquals(mDates[0], diff.getUpdateRows().getDate(0));
+        assertEquals(TEST_LOCATION_ID, diff.getUpdateRows().getLocationId(0));
+        assertEquals(3, diff.getOperations(null).size());
+        assertTrue(diff.hasChanges());
+    }
+}
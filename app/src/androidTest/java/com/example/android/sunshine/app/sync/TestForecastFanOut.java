@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.TodayForecast;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that ForecastFanOut returns without waiting for its listeners, hands each of them the
+    published forecast, and interrupts a listener that runs past its timeout without holding up
+    the others.
+ */
+public class TestForecastFanOut extends AndroidTestCase {
+    private static final TodayForecast TODAY =
+            new TodayForecast(1419033600000L, 321, "Asteroids", 65.0, 50.0);
+
+    public void testListenersRunOffThePublishingThread() throws InterruptedException {
+        ForecastFanOut fanOut = new ForecastFanOut(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final TodayForecast[] received = new TodayForecast[2];
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            fanOut.register("listener" + i, 5000, new ForecastFanOut.Listener() {
+                @Override
+                public void onForecastChanged(TodayForecast today) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    received[index] = today;
+                    done.countDown();
+                }
+            });
+        }
+
+        // Both listeners block until released, so this would hang if publish waited on them
+        fanOut.publish(TODAY);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(TODAY, received[0]);
+        assertSame(TODAY, received[1]);
+    }
+
+    public void testSlowListenerIsInterrupted() throws InterruptedException {
+        ForecastFanOut fanOut = new ForecastFanOut(2);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        fanOut.register("slow", 100, new ForecastFanOut.Listener() {
+            @Override
+            public void onForecastChanged(TodayForecast today) {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        fanOut.register("failing", 5000, new ForecastFanOut.Listener() {
+            @Override
+            public void onForecastChanged(TodayForecast today) {
+                throw new IllegalStateException("Failing on purpose");
+            }
+        });
+        fanOut.register("fast", 5000, new ForecastFanOut.Listener() {
+            @Override
+            public void onForecastChanged(TodayForecast today) {
+                fastDone.countDown();
+            }
+        });
+
+        fanOut.publish(TODAY);
+        assertTrue("Error: The slow listener wasn't interrupted at its timeout",
+                interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue("Error: A slow or failing listener held up the others",
+                fastDone.await(5, TimeUnit.SECONDS));
+    }
+}
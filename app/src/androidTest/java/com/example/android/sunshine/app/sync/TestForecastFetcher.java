@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+
+/*
+    Runs the ForecastFetcher against a local HTTP server to check the conditional GET handling:
+    which validators are sent, and when a response is reported as unchanged.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+    static final String TEST_LOCATION = "94043";
+    static final int TEST_DAY = 2457000;
+
+    private static final String ETAG = "\"forecast-1\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private LocalHttpServer mServer;
+    private ForecastValidatorStore mStore;
+    private ForecastFetcher mFetcher;
+    private ForecastRowBuffer mBuffer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteValidators();
+        mServer = new LocalHttpServer();
+        mStore = new ForecastValidatorStore(mContext);
+        mFetcher = new ForecastFetcher(mServer.getUrl("/data/2.5/forecast/daily?"), mStore);
+        mBuffer = new ForecastRowBuffer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteValidators();
+        super.tearDown();
+    }
+
+    private void deleteValidators() {
+        mContext.getSharedPreferences(ForecastValidatorStore.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    private LocalHttpServer.Response forecast(String fixture) throws Exception {
+        return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK,
+                TestForecastParser.readFixture(fixture));
+    }
+
+    public void testFirstSyncIsUnconditional() throws Exception {
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)
+                .addHeader(ForecastFetcher.HEADER_ETAG, ETAG));
+
+        assertEquals(ForecastFetcher.RESULT_PARSED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer));
+        assertTrue(mBuffer.size() > 0);
+
+        LocalHttpServer.Request request = mServer.getRequest(0);
+        assertNull(request.getHeader(ForecastFetcher.HEADER_IF_NONE_MATCH));
+        assertNull(request.getHeader(ForecastFetcher.HEADER_IF_MODIFIED_SINCE));
+        assertTrue("Error: Location missing from " + request.path,
+                request.path.contains("q=" + TEST_LOCATION));
+    }
+
+    public void testNotModified() throws Exception {
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)
+                .addHeader(ForecastFetcher.HEADER_ETAG, ETAG)
+                .addHeader(ForecastFetcher.HEADER_LAST_MODIFIED, LAST_MODIFIED));
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED, null));
+
+        mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer);
+        mFetcher.saveValidators(TEST_LOCATION, TEST_DAY);
+        int storedRows = mBuffer.size();
+
+        assertEquals(ForecastFetcher.RESULT_NOT_MODIFIED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer));
+        assertEquals("Error: A 304 should leave the buffer alone", storedRows, mBuffer.size());
+
+        LocalHttpServer.Request request = mServer.getRequest(1);
+        assertEquals(ETAG, request.getHeader(ForecastFetcher.HEADER_IF_NONE_MATCH));
+        assertEquals(LAST_MODIFIED, request.getHeader(ForecastFetcher.HEADER_IF_MODIFIED_SINCE));
+    }
+
+    public void testUnchangedBodyWithoutValidators() throws Exception {
+        // OpenWeatherMap normally sends neither header, so only the hash can help
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_MOUNTAIN_VIEW));
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_MOUNTAIN_VIEW));
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_LONDON));
+
+        assertEquals(ForecastFetcher.RESULT_PARSED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer));
+        mFetcher.saveValidators(TEST_LOCATION, TEST_DAY);
+
+        assertEquals(ForecastFetcher.RESULT_UNCHANGED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer));
+        assertEquals(ForecastFetcher.RESULT_PARSED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer));
+        assertEquals("London", mBuffer.cityName);
+    }
+
+    public void testValidatorsOnlySavedAfterStore() throws Exception {
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)
+                .addHeader(ForecastFetcher.HEADER_ETAG, ETAG));
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)
+                .addHeader(ForecastFetcher.HEADER_ETAG, ETAG));
+
+        // The first forecast was never stored (no saveValidators), so it must be parsed again
+        mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer);
+        assertEquals(ForecastFetcher.RESULT_PARSED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer));
+        assertNull(mServer.getRequest(1).getHeader(ForecastFetcher.HEADER_IF_NONE_MATCH));
+    }
+
+    public void testValidatorsExpireWithTheDay() throws Exception {
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)
+                .addHeader(ForecastFetcher.HEADER_ETAG, ETAG));
+        mServer.enqueue(forecast(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)
+                .addHeader(ForecastFetcher.HEADER_ETAG, ETAG));
+
+        mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer);
+        mFetcher.saveValidators(TEST_LOCATION, TEST_DAY);
+
+        // Same body tomorrow still has to be stored, because its rows get tomorrow's dates
+        assertEquals(ForecastFetcher.RESULT_PARSED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY + 1, mBuffer));
+        assertNull(mServer.getRequest(1).getHeader(ForecastFetcher.HEADER_IF_NONE_MATCH));
+    }
+
+    public void testErrorResponseIsNotRemembered() throws Exception {
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_OK,
+                TestForecastParser.readFixture(TestForecastParser.FIXTURE_NOT_FOUND)));
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_OK,
+                TestForecastParser.readFixture(TestForecastParser.FIXTURE_NOT_FOUND)));
+
+        assertEquals(ForecastFetcher.RESULT_PARSED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, mBuffer.messageCode);
+        mFetcher.saveValidators(TEST_LOCATION, TEST_DAY);
+        assertNull(mStore.getContentHash(TEST_LOCATION, TEST_DAY));
+
+        assertEquals(ForecastFetcher.RESULT_PARSED,
+                mFetcher.fetch(TEST_LOCATION, TEST_DAY, mBuffer));
+    }
+}
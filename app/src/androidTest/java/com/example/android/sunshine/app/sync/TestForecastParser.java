@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming and JSONObject parsers produce the same rows from recorded
+    OpenWeatherMap responses, and compares how long each takes and how much it allocates.
+    The fixtures live in src/androidTest/resources/fixtures.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    static final String FIXTURE_MOUNTAIN_VIEW = "owm_daily_94043.json";
+    static final String FIXTURE_LONDON = "owm_daily_london.json";
+    static final String FIXTURE_NOT_FOUND = "owm_error_404.json";
+
+    private static final int BENCHMARK_WARMUP = 20;
+    private static final int BENCHMARK_ITERATIONS = 500;
+
+    static byte[] readFixture(String name) throws IOException {
+        InputStream in = TestForecastParser.class.getClassLoader()
+                .getResourceAsStream("fixtures/" + name);
+        assertNotNull("Error: Missing fixture " + name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testStreamingMatchesJsonObject() throws Exception {
+        for (String fixture : new String[]{FIXTURE_MOUNTAIN_VIEW, FIXTURE_LONDON}) {
+            byte[] payload = readFixture(fixture);
+
+            ForecastRowBuffer dom = new ForecastRowBuffer();
+            ForecastJsonParser.parse(new String(payload, "UTF-8"), dom);
+
+            ForecastRowBuffer streaming = new ForecastRowBuffer();
+            ForecastJsonParser.parse(new ByteArrayInputStream(payload), streaming);
+
+            assertEquals("Error: Message code differs for " + fixture,
+                    dom.messageCode, streaming.messageCode);
+            assertEquals(HttpURLConnection.HTTP_OK, streaming.messageCode);
+            assertEquals("Error: City name differs for " + fixture,
+                    dom.cityName, streaming.cityName);
+            assertEquals(dom.cityLatitude, streaming.cityLatitude);
+            assertEquals(dom.cityLongitude, streaming.cityLongitude);
+            assertEquals("Error: Row count differs for " + fixture, dom.size(), streaming.size());
+            assertTrue("Error: No rows parsed from " + fixture, streaming.size() > 0);
+
+            for (int i = 0; i < dom.size(); i++) {
+                String error = "Error: Row " + i + " of " + fixture + " differs";
+                assertEquals(error, dom.pressure[i], streaming.pressure[i]);
+                assertEquals(error, dom.humidity[i], streaming.humidity[i]);
+                assertEquals(error, dom.windSpeed[i], streaming.windSpeed[i]);
+                assertEquals(error, dom.windDirection[i], streaming.windDirection[i]);
+                assertEquals(error, dom.high[i], streaming.high[i]);
+                assertEquals(error, dom.low[i], streaming.low[i]);
+                assertEquals(error, dom.description[i], streaming.description[i]);
+                assertEquals(error, dom.weatherId[i], streaming.weatherId[i]);
+            }
+        }
+    }
+
+    public void testBufferIsReused() throws Exception {
+        ForecastRowBuffer buffer = new ForecastRowBuffer(2);
+
+        // London has more days than the initial capacity, so the arrays have to grow once
+        ForecastJsonParser.parse(new ByteArrayInputStream(readFixture(FIXTURE_LONDON)), buffer);
+        int londonRows = buffer.size();
+        int[] grownArray = buffer.weatherId;
+
+        ForecastJsonParser.parse(
+                new ByteArrayInputStream(readFixture(FIXTURE_MOUNTAIN_VIEW)), buffer);
+        assertTrue(buffer.size() < londonRows);
+        assertSame("Error: A smaller response should not reallocate the buffer",
+                grownArray, buffer.weatherId);
+        assertEquals("Mountain View", buffer.cityName);
+    }
+
+    public void testErrorResponse() throws Exception {
+        byte[] payload = readFixture(FIXTURE_NOT_FOUND);
+
+        ForecastRowBuffer buffer = new ForecastRowBuffer();
+        ForecastJsonParser.parse(new ByteArrayInputStream(payload), buffer);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, buffer.messageCode);
+        assertEquals(0, buffer.size());
+
+        ForecastJsonParser.parse(new String(payload, "UTF-8"), buffer);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, buffer.messageCode);
+        assertEquals(0, buffer.size());
+    }
+
+    public void testMalformedResponse() throws Exception {
+        ForecastRowBuffer buffer = new ForecastRowBuffer();
+        String[] payloads = {
+                "{\"cod\":\"200\",\"list\":[{\"pressure\":1000}]",
+                "{\"cod\":\"200\",\"city\":{\"name\":\"X\",\"coord\":{\"lat\":1,\"lon\":2}}," +
+                        "\"list\":[{\"pressure\":\"high\"}]}",
+                "{\"cod\":\"200\",\"list\":[]}"
+        };
+        for (String payload : payloads) {
+            try {
+                ForecastJsonParser.parse(new ByteArrayInputStream(payload.getBytes("UTF-8")),
+                        buffer);
+                fail("Error: Expected a JSONException for " + payload);
+            } catch (JSONException expected) {
+                // This is reported to the user as LOCATION_STATUS_SERVER_INVALID
+            } catch (IOException e) {
+                // A truncated stream is reported as LOCATION_STATUS_SERVER_DOWN
+            }
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs the time and allocations per parse for both modes.  The
+        JSONObject mode includes reading the response into a String, as the sync adapter does.
+     */
+    public void testParserBenchmark() throws Exception {
+        for (String fixture : new String[]{FIXTURE_MOUNTAIN_VIEW, FIXTURE_LONDON}) {
+            final byte[] payload = readFixture(fixture);
+            final ForecastRowBuffer buffer = new ForecastRowBuffer();
+
+            long[] dom = measure(BENCHMARK_ITERATIONS, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String json = ForecastJsonParser.readFully(
+                                new ByteArrayInputStream(payload));
+                        ForecastJsonParser.parse(json, buffer);
+                    } catch (IOException | JSONException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            long[] streaming = measure(BENCHMARK_ITERATIONS, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ForecastJsonParser.parse(new ByteArrayInputStream(payload), buffer);
+                    } catch (IOException | JSONException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            Log.i(LOG_TAG, fixture + " (" + payload.length + " bytes, " + buffer.size() + " days)"
+                    + ": JSONObject " + dom[0] + "us/parse, " + dom[1] + " objects, "
+                    + dom[2] + " bytes"
+                    + " | streaming " + streaming[0] + "us/parse, " + streaming[1]
+                    + " objects, " + streaming[2] + " bytes");
+        }
+    }
+
+    /**
+     * @return microseconds per run, objects allocated per run and bytes allocated per run
+     */
+    @SuppressWarnings("deprecation")
+    private static long[] measure(int iterations, Runnable parse) {
+        for (int i = 0; i < BENCHMARK_WARMUP; i++) {
+            parse.run();
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            parse.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+
+        return new long[]{
+                elapsed / 1000 / iterations,
+                Debug.getThreadAllocCount() / iterations,
+                Debug.getThreadAllocSize() / iterations
+        };
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/*
+    Runs ForecastFetcher.fetchWithRetry against a local HTTP server that fails on cue, to check
+    that server errors are retried with backoff, that the circuit breaker stops requests once the
+    server keeps failing, and that the sync result tells the framework to back off.
+ */
+public class TestForecastRetry extends AndroidTestCase {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long COOLDOWN_MILLIS = 60 * 60 * 1000;
+
+    private LocalHttpServer mServer;
+    private ForecastFetcher mFetcher;
+    private ForecastRowBuffer mBuffer;
+    private RetryPolicy mRetryPolicy;
+    private CircuitBreaker mBreaker;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteValidators();
+        mServer = new LocalHttpServer();
+        mFetcher = new ForecastFetcher(mServer.getUrl("/data/2.5/forecast/daily?"),
+                new ForecastValidatorStore(mContext));
+        mBuffer = new ForecastRowBuffer();
+        mRetryPolicy = new RetryPolicy(MAX_ATTEMPTS, 10, 20, new Random(1));
+        mBreaker = new CircuitBreaker(FAILURE_THRESHOLD, COOLDOWN_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteValidators();
+        super.tearDown();
+    }
+
+    private void deleteValidators() {
+        mContext.getSharedPreferences(ForecastValidatorStore.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    private void enqueueFailures(int count, int code) {
+        for (int i = 0; i < count; i++) {
+            mServer.enqueue(new LocalHttpServer.Response(code, null));
+        }
+    }
+
+    private int fetch(SyncResult syncResult) throws Exception {
+        return mFetcher.fetchWithRetry(TestForecastFetcher.TEST_LOCATION,
+                TestForecastFetcher.TEST_DAY, mBuffer, mRetryPolicy, mBreaker, syncResult);
+    }
+
+    public void testServerErrorsAreRetried() throws Exception {
+        enqueueFailures(1, HttpURLConnection.HTTP_UNAVAILABLE);
+        enqueueFailures(1, 429);
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_OK,
+                TestForecastParser.readFixture(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)));
+
+        SyncResult syncResult = new SyncResult();
+        assertEquals(ForecastFetcher.RESULT_PARSED, fetch(syncResult));
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(0, syncResult.stats.numIoExceptions);
+        assertEquals("Error: Success didn't reset the breaker", 0, mBreaker.getOpenUntil());
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        enqueueFailures(MAX_ATTEMPTS + 1, HttpURLConnection.HTTP_UNAVAILABLE);
+
+        SyncResult syncResult = new SyncResult();
+        try {
+            fetch(syncResult);
+            fail("Error: A failing server didn't throw");
+        } catch (IOException expected) {
+        }
+        assertEquals(MAX_ATTEMPTS, mServer.getRequestCount());
+        assertEquals(1, syncResult.stats.numIoExceptions);
+        assertTrue(syncResult.hasSoftError());
+        assertEquals("Error: Breaker opened before its threshold", 0, syncResult.delayUntil);
+    }
+
+    public void testBreakerStopsRequests() throws Exception {
+        enqueueFailures(FAILURE_THRESHOLD, HttpURLConnection.HTTP_UNAVAILABLE);
+
+        SyncResult syncResult = new SyncResult();
+        long start = System.currentTimeMillis();
+        // Three failures, then two more, the last of which opens the breaker
+        for (int i = 0; i < 2; i++) {
+            try {
+                fetch(syncResult);
+                fail();
+            } catch (IOException expected) {
+            }
+        }
+        assertEquals(FAILURE_THRESHOLD, mServer.getRequestCount());
+        // The framework is told to wait out the cooldown
+        assertTrue(syncResult.delayUntil >= (start + COOLDOWN_MILLIS) / 1000);
+
+        try {
+            fetch(syncResult);
+            fail("Error: The open breaker let a fetch through");
+        } catch (ForecastFetcher.CircuitOpenException expected) {
+        }
+        assertEquals("Error: A request reached the server while the breaker was open",
+                FAILURE_THRESHOLD, mServer.getRequestCount());
+        assertEquals(3, syncResult.stats.numIoExceptions);
+    }
+
+    public void testNotFoundIsNotRetried() throws Exception {
+        enqueueFailures(1, HttpURLConnection.HTTP_NOT_FOUND);
+
+        SyncResult syncResult = new SyncResult();
+        try {
+            fetch(syncResult);
+            fail();
+        } catch (ForecastFetcher.HttpStatusException expected) {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, expected.getStatusCode());
+        }
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(0, syncResult.stats.numIoExceptions);
+    }
+
+    public void testBreakerLetsOneTrialThrough() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 1000);
+        assertTrue(breaker.allowRequest(0));
+        breaker.onFailure(0);
+        assertTrue(breaker.allowRequest(0));
+        breaker.onFailure(0);
+        assertEquals(1000, breaker.getOpenUntil());
+        assertFalse(breaker.allowRequest(999));
+
+        assertTrue(breaker.allowRequest(1000));
+        assertFalse("Error: Two trials were let through", breaker.allowRequest(1000));
+        breaker.onFailure(1000);
+        assertEquals("Error: A failed trial didn't reopen the breaker",
+                2000, breaker.getOpenUntil());
+
+        assertTrue(breaker.allowRequest(2000));
+        breaker.onSuccess();
+        assertEquals(0, breaker.getOpenUntil());
+        assertTrue(breaker.allowRequest(2000));
+    }
+
+    public void testBackoffIsCappedAndJittered() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 400, new Random(1));
+        long[] ceilings = {100, 200, 400, 400, 400};
+        for (int retry = 0; retry < ceilings.length; retry++) {
+            long delay = policy.getDelayMillis(retry);
+            assertTrue("Error: Retry " + retry + " waits " + delay + " ms",
+                    delay >= ceilings[retry] / 2 && delay <= ceilings[retry]);
+        }
+        assertTrue(policy.getDelayMillis(100) <= 400);
+    }
+}
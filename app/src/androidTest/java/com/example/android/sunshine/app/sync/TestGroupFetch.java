@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/*
+    Runs the group fetch against a local HTTP server.  Besides checking that a group response is
+    split into the same rows the single city requests give, it logs how many requests a sync of
+    two locations takes and how many bytes each location costs in both modes.
+ */
+public class TestGroupFetch extends AndroidTestCase {
+    public static final String LOG_TAG = TestGroupFetch.class.getSimpleName();
+
+    static final long MOUNTAIN_VIEW_ID = 5375480;
+    static final long LONDON_ID = 2643743;
+
+    private LocalHttpServer mServer;
+    private ForecastFetcher mFetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteValidators();
+        mServer = new LocalHttpServer();
+        mFetcher = new ForecastFetcher(mServer.getUrl("/data/2.5/forecast/daily?"),
+                mServer.getUrl("/data/2.5/forecast/group?"),
+                new ForecastValidatorStore(mContext));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteValidators();
+        super.tearDown();
+    }
+
+    private void deleteValidators() {
+        mContext.getSharedPreferences(ForecastValidatorStore.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    // Wraps whole forecast responses into one group response
+    static byte[] groupResponse(String... fixtures) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("{\"cnt\":" + fixtures.length + ",\"list\":[").getBytes("UTF-8"));
+        for (int i = 0; i < fixtures.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(TestForecastParser.readFixture(fixtures[i]));
+        }
+        out.write("]}".getBytes("UTF-8"));
+        return out.toByteArray();
+    }
+
+    private static ForecastRowBuffer[] newBuffers(int count) {
+        ForecastRowBuffer[] buffers = new ForecastRowBuffer[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = new ForecastRowBuffer();
+        }
+        return buffers;
+    }
+
+    public void testGroupMatchesSingleCity() throws Exception {
+        // One sync of both locations, city by city
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_OK,
+                TestForecastParser.readFixture(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)));
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_OK,
+                TestForecastParser.readFixture(TestForecastParser.FIXTURE_LONDON)));
+        ForecastRowBuffer mountainView = new ForecastRowBuffer();
+        ForecastRowBuffer london = new ForecastRowBuffer();
+        mFetcher.fetch("94043", 0, mountainView);
+        mFetcher.fetch("London,uk", 0, london);
+        int singleRequests = mServer.getRequestCount();
+        long singleBytes = mServer.getBytesSent();
+
+        // The same sync with one group request
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_OK, groupResponse(
+                TestForecastParser.FIXTURE_LONDON, TestForecastParser.FIXTURE_MOUNTAIN_VIEW)));
+        ForecastRowBuffer[] buffers = newBuffers(2);
+        assertEquals(2, mFetcher.fetchGroup(new long[] {MOUNTAIN_VIEW_ID, LONDON_ID}, 2, buffers));
+        int groupRequests = mServer.getRequestCount() - singleRequests;
+        long groupBytes = mServer.getBytesSent() - singleBytes;
+
+        assertEquals(1, groupRequests);
+        String path = mServer.getRequest(singleRequests).path;
+        assertTrue("Error: City ids missing from " + path,
+                path.contains(ForecastFetcher.ID_PARAM + "=" + MOUNTAIN_VIEW_ID + "%2C" + LONDON_ID));
+
+        // The response order is the server's, so match the buffers up by city id
+        ForecastRowBuffer groupLondon = buffers[0].cityId == LONDON_ID ? buffers[0] : buffers[1];
+        ForecastRowBuffer groupMountainView = buffers[0] == groupLondon ? buffers[1] : buffers[0];
+        assertEquals(MOUNTAIN_VIEW_ID, groupMountainView.cityId);
+        assertSameRows(mountainView, groupMountainView);
+        assertSameRows(london, groupLondon);
+
+        Log.i(LOG_TAG, "2 locations: per city " + singleRequests + " requests, "
+                + singleBytes / 2 + " bytes/location | group " + groupRequests + " request, "
+                + groupBytes / 2 + " bytes/location");
+    }
+
+    public void testMissingCitiesAreLeftOut() throws Exception {
+        // Asked for two cities, the server only knows one and reports an error for the other
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_OK, groupResponse(
+                TestForecastParser.FIXTURE_MOUNTAIN_VIEW, TestForecastParser.FIXTURE_NOT_FOUND)));
+        ForecastRowBuffer[] buffers = newBuffers(2);
+        assertEquals(2, mFetcher.fetchGroup(new long[] {MOUNTAIN_VIEW_ID, 1}, 2, buffers));
+
+        assertEquals(MOUNTAIN_VIEW_ID, buffers[0].cityId);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, buffers[1].messageCode);
+        assertEquals("Error: An error entry can't be matched to a city", 0, buffers[1].cityId);
+    }
+
+    public void testGroupFailureThrows() throws Exception {
+        mServer.enqueue(new LocalHttpServer.Response(HttpURLConnection.HTTP_UNAVAILABLE, null));
+        try {
+            mFetcher.fetchGroup(new long[] {MOUNTAIN_VIEW_ID, LONDON_ID}, 2, newBuffers(2));
+            fail("Error: A failed group request should throw so the sync can fall back");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testNoGroupEndpoint() {
+        ForecastFetcher fetcher = new ForecastFetcher(mServer.getUrl("/"),
+                new ForecastValidatorStore(mContext));
+        assertFalse(fetcher.canFetchGroup());
+    }
+
+    private static void assertSameRows(ForecastRowBuffer expected, ForecastRowBuffer actual) {
+        assertEquals(expected.cityName, actual.cityName);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.high[i], actual.high[i]);
+            assertEquals(expected.low[i], actual.low[i]);
+            assertEquals(expected.description[i], actual.description[i]);
+            assertEquals(expected.weatherId[i], actual.weatherId[i]);
+        }
+    }
+}
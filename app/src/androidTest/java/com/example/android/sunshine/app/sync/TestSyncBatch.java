@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/*
+    Checks that a sync writes a location and its forecast with one insert_rows call, and compares
+    it with the way syncs wrote before: a query for the location, an insert if it was new, a query
+    for the stored rows and an insert_rows call with the rows alone.  For both it logs the wall time per location sync and
+    the write transactions committed, counted from the commit frames in the WAL.  Each commit is
+    an fsync at synchronous=FULL; at the NORMAL the provider uses, commits are only synced by
+    checkpoints, which come sooner the more the WAL grows.
+ */
+public class TestSyncBatch extends AndroidTestCase {
+    public static final String LOG_TAG = TestSyncBatch.class.getSimpleName();
+
+    // WeatherDbHelper.DATABASE_NAME
+    static final String DATABASE_NAME = "weather.db";
+    // Few enough that the WAL stays below its autocheckpoint while commits are counted
+    static final int LOCATION_COUNT = 5;
+    static final int TIMED_ROUNDS = 20;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final long FIRST_DATE = 1419033600000L;  // December 20th, 2014
+
+    private ForecastRowBuffer mBuffer;
+    private long[] mDates;
+    private final ForecastDiff mDiff = new ForecastDiff();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mBuffer = new ForecastRowBuffer();
+        ForecastJsonParser.parse(new ByteArrayInputStream(
+                TestForecastParser.readFixture(TestForecastParser.FIXTURE_MOUNTAIN_VIEW)), mBuffer);
+        mDates = new long[mBuffer.size()];
+        for (int i = 0; i < mDates.length; i++) {
+            mDates[i] = WeatherContract.normalizeDate(FIRST_DATE + i * DAY_IN_MILLIS);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testBatchInsertsLocationOnce() throws Exception {
+        checkInsertsLocationOnce(false);
+    }
+
+    public void testOperationsInsertLocationOnce() throws Exception {
+        checkInsertsLocationOnce(true);
+    }
+
+    private void checkInsertsLocationOnce(boolean operations) throws Exception {
+        syncBatch("94043", operations);
+        assertEquals("Error: The provider changed the rows it was given",
+                ForecastDiff.BACK_REFERENCED_LOCATION_ID, mDiff.getInsertRows().getLocationId(0));
+        long firstRowId = getFirstRowId();
+        // A changed forecast for the stored location
+        mBuffer.high[0] += 1;
+        syncBatch("94043", operations);
+        assertEquals("Error: The changed day was replaced rather than updated",
+                firstRowId, getFirstRowId());
+
+        Cursor location = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[] {LocationEntry._ID}, null, null, null);
+        assertEquals("Error: The location was inserted twice", 1, location.getCount());
+        location.moveToFirst();
+        long locationId = location.getLong(0);
+        location.close();
+
+        Cursor weather = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationId(locationId),
+                new String[] {WeatherEntry.COLUMN_MAX_TEMP}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: The rows don't reference the location",
+                mBuffer.size(), weather.getCount());
+        weather.moveToFirst();
+        assertEquals(mBuffer.high[0], weather.getDouble(0));
+        weather.close();
+    }
+
+    public void testBatchRefreshesStoredLocation() throws Exception {
+        // A location stored before city ids were, somewhere else
+        ContentValues stale = new ContentValues();
+        stale.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        stale.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        stale.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        stale.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, stale));
+        String staleGeohash = getLocationColumn(LocationEntry.COLUMN_GEOHASH);
+
+        syncBatch("94043", false);
+        assertEquals("Error: The stored location wasn't kept", Long.toString(locationId),
+                getLocationColumn(LocationEntry._ID));
+        assertEquals("Error: The sync didn't store the city id",
+                Long.toString(mBuffer.cityId), getLocationColumn(LocationEntry.COLUMN_CITY_ID));
+        assertEquals(mBuffer.cityLatitude,
+                Double.parseDouble(getLocationColumn(LocationEntry.COLUMN_COORD_LAT)));
+        assertFalse("Error: The moved location kept its geohash",
+                staleGeohash.equals(getLocationColumn(LocationEntry.COLUMN_GEOHASH)));
+    }
+
+    private String getLocationColumn(String column) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[] {column}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        String value = cursor.getString(0);
+        cursor.close();
+        return value;
+    }
+
+    private long getFirstRowId() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[] {WeatherEntry._ID}, WeatherEntry.COLUMN_DATE + " = ?",
+                new String[] {Long.toString(mDates[0])}, null);
+        assertTrue(cursor.moveToFirst());
+        long rowId = cursor.getLong(0);
+        cursor.close();
+        return rowId;
+    }
+
+    public void testCommitsAndWallTime() throws Exception {
+        long[] separate = measure(false);
+        TestUtilities.deleteAllRecords(mContext);
+        long[] batched = measure(true);
+
+        Log.i(LOG_TAG, LOCATION_COUNT + " locations, separate calls -> one call:"
+                + " commits for new locations " + separate[0] + " -> " + batched[0]
+                + ", for changed forecasts " + separate[1] + " -> " + batched[1]
+                + ", microseconds per location sync " + separate[2] + " -> " + batched[2]);
+        if (batched[0] >= 0) {
+            assertEquals("Error: A new location should take one transaction",
+                    LOCATION_COUNT, batched[0]);
+            assertEquals(LOCATION_COUNT, batched[1]);
+        }
+    }
+
+    /**
+     * @return the commits for syncing new locations, the commits for syncing them again with
+     *         changed forecasts (both -1 if the WAL can't be read), and the mean wall time of a
+     *         location sync in microseconds
+     */
+    private long[] measure(boolean batched) throws Exception {
+        long[] result = new long[3];
+
+        resetWal();
+        syncAll(batched, 0);
+        result[0] = countWalCommits();
+
+        resetWal();
+        syncAll(batched, 1);
+        result[1] = countWalCommits();
+
+        long start = SystemClock.elapsedRealtime();
+        for (int round = 2; round < TIMED_ROUNDS + 2; round++) {
+            syncAll(batched, round);
+        }
+        result[2] = (SystemClock.elapsedRealtime() - start) * 1000
+                / (TIMED_ROUNDS * LOCATION_COUNT);
+        return result;
+    }
+
+    private void syncAll(boolean batched, int round) throws Exception {
+        // Every round changes every day, so every sync writes its rows
+        for (int i = 0; i < mBuffer.size(); i++) {
+            mBuffer.high[i] = 20 + round;
+        }
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            String location = "location" + i;
+            if (batched) {
+                syncBatch(location, false);
+            } else {
+                syncSeparately(location);
+            }
+        }
+    }
+
+    // What SunshineSyncAdapter does now, or without ContentResolver.call if operations is true
+    private void syncBatch(String locationSetting, boolean operations) throws Exception {
+        ContentResolver resolver = mContext.getContentResolver();
+        long locationId = LocationIdCache.getId(locationSetting);
+        Cursor stored = locationId != -1
+                ? resolver.query(WeatherEntry.CONTENT_URI, ForecastDiff.STORED_PROJECTION,
+                        ForecastDiff.STORED_SELECTION, new String[] {Long.toString(locationId)},
+                        null)
+                : resolver.query(WeatherEntry.CONTENT_URI, ForecastDiff.STORED_PROJECTION,
+                        ForecastDiff.STORED_BY_SETTING_SELECTION, new String[] {locationSetting},
+                        null);
+        mDiff.compare(mBuffer, ForecastDiff.BACK_REFERENCED_LOCATION_ID, mDates, stored);
+        stored.close();
+        ContentValues location = SunshineSyncAdapter.getLocationValues(locationSetting,
+                mBuffer.cityId, mBuffer.cityName, mBuffer.cityLatitude, mBuffer.cityLongitude);
+        if (operations) {
+            resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, mDiff.getOperations(location));
+        } else {
+            SunshineSyncAdapter.writeRows(resolver, mDiff, location);
+        }
+    }
+
+    // What SunshineSyncAdapter did before
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void syncSeparately(String locationSetting) {
+        ContentResolver resolver = mContext.getContentResolver();
+        long locationId;
+        Cursor location = resolver.query(LocationEntry.CONTENT_URI,
+                new String[] {LocationEntry._ID}, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {locationSetting}, null);
+        if (location.moveToFirst()) {
+            locationId = location.getLong(0);
+        } else {
+            locationId = ContentUris.parseId(resolver.insert(LocationEntry.CONTENT_URI,
+                    SunshineSyncAdapter.getLocationValues(locationSetting, mBuffer.cityId,
+                            mBuffer.cityName, mBuffer.cityLatitude, mBuffer.cityLongitude)));
+        }
+        location.close();
+
+        Cursor stored = resolver.query(WeatherEntry.CONTENT_URI, ForecastDiff.STORED_PROJECTION,
+                ForecastDiff.STORED_SELECTION, new String[] {Long.toString(locationId)}, null);
+        mDiff.compare(mBuffer, locationId, mDates, stored);
+        stored.close();
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherEntry.EXTRA_ROWS, mDiff.getInsertRows());
+        extras.putParcelable(WeatherEntry.EXTRA_UPDATE_ROWS, mDiff.getUpdateRows());
+        resolver.call(WeatherEntry.CONTENT_URI, WeatherEntry.METHOD_INSERT_ROWS, null, extras);
+    }
+
+    private File getWalFile() {
+        return new File(mContext.getDatabasePath(DATABASE_NAME).getPath() + "-wal");
+    }
+
+    /**
+     * Checkpoints the whole WAL, so that the provider's next commit starts it over.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void resetWal() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN || !getWalFile().exists()) {
+            return;
+        }
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                mContext.getDatabasePath(DATABASE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+        try {
+            Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(RESTART)", null);
+            cursor.moveToFirst();
+            cursor.close();
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Counts the commit frames of the current WAL: the frames whose salt matches the header, up
+     * to the first that doesn't, which has a nonzero database size.
+     *
+     * @return the number of commits, or -1 if there is no WAL
+     */
+    private long countWalCommits() throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN || !getWalFile().exists()) {
+            return -1;
+        }
+        InputStream in = new FileInputStream(getWalFile());
+        try {
+            byte[] header = new byte[32];
+            try {
+                readFully(in, header);
+            } catch (EOFException e) {
+                return 0;
+            }
+            ByteBuffer walHeader = ByteBuffer.wrap(header);
+            int pageSize = walHeader.getInt(8);
+            int salt1 = walHeader.getInt(16);
+            int salt2 = walHeader.getInt(20);
+
+            byte[] frameHeader = new byte[24];
+            byte[] page = new byte[pageSize];
+            long commits = 0;
+            while (true) {
+                try {
+                    readFully(in, frameHeader);
+                    readFully(in, page);
+                } catch (EOFException e) {
+                    break;
+                }
+                ByteBuffer frame = ByteBuffer.wrap(frameHeader);
+                if (frame.getInt(8) != salt1 || frame.getInt(12) != salt2) {
+                    break;
+                }
+                if (frame.getInt(4) != 0) {
+                    commits++;
+                }
+            }
+            return commits;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int count = in.read(buffer, read, buffer.length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Checks that SyncCoalescer asks for one sync per debounce window, that requests for a location
+    which is being synced join that sync, that fresh locations aren't synced and only hard-stale
+    ones expedite the sync, and that its counters add up.
+ */
+public class TestSyncCoalescer extends AndroidTestCase {
+    private static final long DEBOUNCE_MILLIS = 200;
+    // Long enough for the main thread to run the debounced request
+    private static final long WAIT_MILLIS = DEBOUNCE_MILLIS * 5;
+    private static final long TTL_MILLIS = 30 * 60 * 1000;
+    private static final long HARD_TTL_MILLIS = 6 * 60 * 60 * 1000;
+
+    private final AtomicInteger mSyncs = new AtomicInteger();
+    private final AtomicInteger mExpeditedSyncs = new AtomicInteger();
+    private ForecastFreshness mFreshness;
+    private SyncCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearFreshness();
+        mSyncs.set(0);
+        mExpeditedSyncs.set(0);
+        mFreshness = new ForecastFreshness(mContext, TTL_MILLIS, HARD_TTL_MILLIS);
+        mCoalescer = new SyncCoalescer(DEBOUNCE_MILLIS, mFreshness,
+                new SyncCoalescer.SyncRequester() {
+                    @Override
+                    public void requestSync(boolean expedited) {
+                        mSyncs.incrementAndGet();
+                        if (expedited) {
+                            mExpeditedSyncs.incrementAndGet();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearFreshness();
+        super.tearDown();
+    }
+
+    private void clearFreshness() {
+        mContext.getSharedPreferences(ForecastFreshness.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    public void testFreshnessStates() {
+        long now = System.currentTimeMillis();
+        assertEquals(ForecastFreshness.STATE_HARD_STALE, mFreshness.getState("94043", now));
+
+        mFreshness.markSynced("94043", now);
+        assertEquals(ForecastFreshness.STATE_FRESH, mFreshness.getState("94043", now + 1000));
+        assertEquals(ForecastFreshness.STATE_SOFT_STALE,
+                mFreshness.getState("94043", now + TTL_MILLIS));
+        assertEquals(ForecastFreshness.STATE_HARD_STALE,
+                mFreshness.getState("94043", now + HARD_TTL_MILLIS));
+        assertEquals("Error: A sync in the future was taken as fresh",
+                ForecastFreshness.STATE_HARD_STALE, mFreshness.getState("94043", now - 1000));
+        assertEquals(ForecastFreshness.STATE_HARD_STALE, mFreshness.getState("10001", now));
+    }
+
+    public void testFreshLocationIsNotSynced() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        mFreshness.markSynced("94043", now);
+        mCoalescer.requestSync("94043");
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals(0, mSyncs.get());
+        assertEquals(1, mCoalescer.getFreshCount());
+
+        // Soft-stale data is refreshed without expediting the sync
+        mFreshness.markSynced("94043", now - TTL_MILLIS);
+        mCoalescer.requestSync("94043");
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals(1, mSyncs.get());
+        assertEquals(0, mExpeditedSyncs.get());
+
+        // One hard-stale location expedites the sync it joins
+        mCoalescer.requestSync("94043");
+        mCoalescer.requestSync("10001");
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals(2, mSyncs.get());
+        assertEquals(1, mExpeditedSyncs.get());
+        assertEquals(mCoalescer.getRequestedCount(), mCoalescer.getFreshCount()
+                + mCoalescer.getCoalescedCount() + mCoalescer.getExecutedCount());
+    }
+
+    public void testBurstIsOneSync() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            mCoalescer.requestSync("94043");
+        }
+        mCoalescer.requestSync("10001");
+        Thread.sleep(WAIT_MILLIS);
+
+        assertEquals(1, mSyncs.get());
+        assertEquals(6, mCoalescer.getRequestedCount());
+        assertEquals(5, mCoalescer.getCoalescedCount());
+        assertEquals(1, mCoalescer.getExecutedCount());
+
+        // The next window asks again
+        mCoalescer.requestSync("94043");
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals(2, mSyncs.get());
+    }
+
+    public void testRequestJoinsSyncInFlight() throws InterruptedException {
+        mCoalescer.onSyncStarted(Arrays.asList("94043", "10001"));
+        mCoalescer.requestSync("94043");
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals("Error: A location that is being synced was synced again", 0, mSyncs.get());
+
+        mCoalescer.requestSync("60601");
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals("Error: A location missing from the running sync wasn't synced",
+                1, mSyncs.get());
+
+        mCoalescer.onSyncFinished();
+        mCoalescer.requestSync("94043");
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals(2, mSyncs.get());
+        assertEquals(mCoalescer.getRequestedCount(),
+                mCoalescer.getCoalescedCount() + mCoalescer.getExecutedCount());
+    }
+
+    public void testSyncStartedDuringWindowCoversRequest() throws InterruptedException {
+        mCoalescer.requestSync("94043");
+        mCoalescer.onSyncStarted(Arrays.asList("94043"));
+        Thread.sleep(WAIT_MILLIS);
+
+        assertEquals(0, mSyncs.get());
+        assertEquals(1, mCoalescer.getCoalescedCount());
+        assertEquals(0, mCoalescer.getExecutedCount());
+    }
+}
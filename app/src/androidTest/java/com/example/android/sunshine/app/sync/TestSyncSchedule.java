@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/*
+    Checks the adaptive sync interval, and replays a week of forecast changes against it and
+    against the fixed interval.  The reports are logged, so run this to see what a change to
+    SyncSchedulePolicy does to syncs per day and staleness.
+ */
+public class TestSyncSchedule extends AndroidTestCase {
+    private static final String LOG_TAG = TestSyncSchedule.class.getSimpleName();
+
+    // The day rolls over at midnight, and the model runs every six hours change a few days.  A
+    // storm on Wednesday and Thursday changes most of the forecast, and the weekend is calm.
+    static final String[] WEEK = {
+            "100400000300000400000300",
+            "100400000300000400000300",
+            "100a00202802020a02020900",
+            "100a02020902020802020a00",
+            "100300000300000300000200",
+            "100100000100000100000100",
+            "100100000100000100000100"
+    };
+
+    public void testInterval() {
+        int base = SunshineSyncAdapter.SYNC_INTERVAL;
+        double rate = SyncSchedulePolicy.DEFAULT_CHANGE_RATE;
+        assertEquals(base, SyncSchedulePolicy.getInterval(base, rate, 12, false, false, true));
+
+        assertTrue("Error: A changing forecast isn't synced more often",
+                SyncSchedulePolicy.getInterval(base, 0.9, 12, false, false, true) < base);
+        assertTrue(SyncSchedulePolicy.getInterval(base, 0.1, 12, false, false, true) > base);
+        assertTrue("Error: Nights aren't synced less",
+                SyncSchedulePolicy.getInterval(base, rate, 2, false, false, true) > base);
+        assertTrue(SyncSchedulePolicy.getInterval(base, rate, 12, true, true, true) < base);
+        assertTrue("Error: Nothing showing the forecast doesn't sync less",
+                SyncSchedulePolicy.getInterval(base, rate, 12, false, false, false) > base);
+
+        assertEquals(SyncSchedulePolicy.MIN_INTERVAL,
+                SyncSchedulePolicy.getInterval(base, 1, 12, true, true, true));
+        assertEquals(SyncSchedulePolicy.MAX_INTERVAL,
+                SyncSchedulePolicy.getInterval(base, 0, 2, false, false, false));
+    }
+
+    public void testChangeRate() {
+        double rate = SyncSchedulePolicy.DEFAULT_CHANGE_RATE;
+        for (int i = 0; i < 20; i++) {
+            rate = SyncSchedulePolicy.updateChangeRate(rate, 0);
+        }
+        assertTrue(rate < 0.01);
+        rate = SyncSchedulePolicy.updateChangeRate(rate, 1);
+        assertEquals(SyncSchedulePolicy.CHANGE_RATE_WEIGHT, rate, 0.01);
+    }
+
+    public void testReplayWeek() {
+        SyncScheduleSimulation.Report fixed =
+                SyncScheduleSimulation.replay(WEEK, SyncScheduleSimulation.FIXED);
+        SyncScheduleSimulation.Report adaptive =
+                SyncScheduleSimulation.replay(WEEK, SyncScheduleSimulation.ADAPTIVE);
+        Log.i(LOG_TAG, "Fixed interval: " + fixed);
+        Log.i(LOG_TAG, "Adaptive interval: " + adaptive);
+
+        assertEquals(24 * 3600 / SunshineSyncAdapter.SYNC_INTERVAL, fixed.getSyncsPerDay(), 0.01);
+        assertTrue("Error: The adaptive schedule didn't sync less",
+                adaptive.getSyncsPerDay() < fixed.getSyncsPerDay());
+        assertTrue("Error: The adaptive schedule left the forecast staler",
+                adaptive.getStaleHoursPerDay() <= fixed.getStaleHoursPerDay());
+    }
+
+    public void testStormSyncsMoreThanCalm() {
+        String[] storm = new String[7];
+        String[] calm = new String[7];
+        Arrays.fill(storm, WEEK[2]);
+        Arrays.fill(calm, WEEK[5]);
+
+        SyncScheduleSimulation.Report stormy =
+                SyncScheduleSimulation.replay(storm, SyncScheduleSimulation.ADAPTIVE);
+        SyncScheduleSimulation.Report quiet =
+                SyncScheduleSimulation.replay(calm, SyncScheduleSimulation.ADAPTIVE);
+        Log.i(LOG_TAG, "Stormy week: " + stormy);
+        Log.i(LOG_TAG, "Calm week: " + quiet);
+        assertTrue(stormy.getSyncsPerDay() > quiet.getSyncsPerDay());
+    }
+}
@@ -41,6 +41,9 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    // How close to the last loaded row binding a row asks for the next page
+    private static final int PREFETCH_DISTANCE = 5;
+
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
@@ -49,6 +52,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    private ForecastAdapterOnNearEndHandler mNearEndHandler;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -84,6 +88,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         void onClick(Long date, ForecastAdapterViewHolder vh);
     }
 
+    /**
+     * Told when a row close to the end of the cursor is bound, so that the next page can be
+     * loaded before the list scrolls to the end.
+     */
+    public static interface ForecastAdapterOnNearEndHandler {
+        void onNearEnd();
+    }
+
     public ForecastAdapter(Context context, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
         mContext = context;
         mClickHandler = dh;
@@ -183,6 +195,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+
+        if (null != mNearEndHandler && position >= getItemCount() - PREFETCH_DISTANCE) {
+            mNearEndHandler.onNearEnd();
+        }
+    }
+
+    public void setOnNearEndHandler(ForecastAdapterOnNearEndHandler nearEndHandler) {
+        mNearEndHandler = nearEndHandler;
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -213,8 +233,21 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     }
 
     public void swapCursor(Cursor newCursor) {
+        swapCursor(newCursor, false);
+    }
+
+    /**
+     * @param appended true if the new cursor holds the rows of the old one, followed by more
+     */
+    public void swapCursor(Cursor newCursor, boolean appended) {
+        int oldCount = getItemCount();
         mCursor = newCursor;
-        notifyDataSetChanged();
+        if (appended && getItemCount() >= oldCount) {
+            // The rows already shown stay bound as they are
+            notifyItemRangeInserted(oldCount, getItemCount() - oldCount);
+        } else {
+            notifyDataSetChanged();
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
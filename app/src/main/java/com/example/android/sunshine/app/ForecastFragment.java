@@ -28,7 +28,6 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -63,6 +62,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
+    // Rows per query of the forecast list.  A screen shows about a week.
+    private static final int FORECAST_PAGE_SIZE = 20;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
     private static final String[] FORECAST_COLUMNS = {
@@ -196,6 +197,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         );
             }
         }, emptyView, mChoiceMode);
+        mForecastAdapter.setOnNearEndHandler(new ForecastAdapter.ForecastAdapterOnNearEndHandler() {
+            @Override
+            public void onNearEnd() {
+                Loader<Cursor> loader = getLoaderManager().getLoader(FORECAST_LOADER);
+                if (loader instanceof ForecastPageLoader) {
+                    ((ForecastPageLoader) loader).loadMore();
+                }
+            }
+        });
 
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
@@ -307,28 +317,28 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // fragment only uses one loader, so we don't care about checking the id.
 
         // To only show current and future dates, filter the query to return weather only for
-        // dates after or including today.
-
-        // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-
+        // dates after or including today.  The rows come a page at a time, ascending by date.
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
-                weatherForLocationUri,
+        return new ForecastPageLoader(getActivity(),
+                locationSetting,
+                System.currentTimeMillis(),
                 FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
+                COL_WEATHER_DATE,
+                FORECAST_PAGE_SIZE);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (null != mForecastAdapter.getCursor() && loader instanceof ForecastPageLoader
+                && ((ForecastPageLoader) loader).isAppended()) {
+            // Another page below the rows shown, which leaves the selection and scroll alone
+            mForecastAdapter.swapCursor(data, true);
+            return;
+        }
         mForecastAdapter.swapCursor(data);
         updateEmptyView();
-        if ( data.getCount() == 0 ) {
+        if ( data == null || data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
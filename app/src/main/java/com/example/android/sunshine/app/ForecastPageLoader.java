@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DataSetObserver;
+import android.database.MergeCursor;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+
+/**
+ * Loads the forecast of a location a page at a time, like a {@link
+ * android.support.v4.content.CursorLoader} whose query is cut into pages.  The first load reads
+ * one page, and {@link #loadMore()} reads the page after the last date loaded and delivers it
+ * together with the pages before it, which stay open as they are.  Each page is its own query and
+ * its own cursor window, so the memory a load takes doesn't grow with the history stored.
+ *
+ * When the forecast changes, as many pages as were loaded are read again, one query each, so the
+ * list keeps its length and no window grows past a page.
+ */
+public class ForecastPageLoader extends AsyncTaskLoader<Cursor> {
+    final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    private final String mLocationSetting;
+    private final long mStartDate;
+    private final String[] mProjection;
+    private final int mDateColumn;
+    private final int mPageSize;
+
+    // The last result delivered
+    private PagedCursor mCursor;
+    // Whether a load is running, so that loadMore doesn't cancel it
+    private boolean mLoading;
+    // Whether the next load appends a page rather than reading everything again
+    private boolean mAppend;
+
+    /**
+     * A page as one result sees it.  MergeCursor registers an observer on each of its cursors and
+     * only lets go of it by closing them, but an appended result shares its pages with the result
+     * before it.  So each result merges views of the pages, and closing a view unregisters what
+     * was registered through it and leaves the page open.
+     */
+    static class PageView extends CursorWrapper {
+        private final ArrayList<DataSetObserver> mObservers = new ArrayList<>();
+
+        PageView(Cursor page) {
+            super(page);
+        }
+
+        @Override
+        public void registerDataSetObserver(DataSetObserver observer) {
+            mObservers.add(observer);
+            super.registerDataSetObserver(observer);
+        }
+
+        @Override
+        public void unregisterDataSetObserver(DataSetObserver observer) {
+            if (mObservers.remove(observer)) {
+                super.unregisterDataSetObserver(observer);
+            }
+        }
+
+        @Override
+        public void close() {
+            for (DataSetObserver observer : mObservers) {
+                super.unregisterDataSetObserver(observer);
+            }
+            mObservers.clear();
+        }
+    }
+
+    /**
+     * The pages loaded so far as one cursor.  Closing it leaves the pages open, for a result that
+     * appends to them; {@link #closePages()} closes them as well.
+     */
+    static class PagedCursor extends MergeCursor {
+        final Cursor[] pages;
+        // The number of rows over all pages
+        final int rowCount;
+        // The date of the last row, or 0 if there are no rows
+        final long lastDate;
+        // Whether the last page was full, so there may be more after it
+        final boolean hasMore;
+        // Whether the last page was added to the pages of an earlier result
+        final boolean appended;
+
+        PagedCursor(Cursor[] pages, int rowCount, long lastDate, boolean hasMore,
+                    boolean appended) {
+            super(getViews(pages));
+            this.pages = pages;
+            this.rowCount = rowCount;
+            this.lastDate = lastDate;
+            this.hasMore = hasMore;
+            this.appended = appended;
+        }
+
+        private static Cursor[] getViews(Cursor[] pages) {
+            Cursor[] views = new Cursor[pages.length];
+            for (int i = 0; i < pages.length; i++) {
+                views[i] = new PageView(pages[i]);
+            }
+            return views;
+        }
+
+        /**
+         * Closes this result and its pages.
+         */
+        void closePages() {
+            close();
+            for (Cursor page : pages) {
+                page.close();
+            }
+        }
+
+        /**
+         * Closes what this result added: its last page if it was appended, else all of it.
+         */
+        void release() {
+            if (appended) {
+                close();
+                pages[pages.length - 1].close();
+            } else {
+                closePages();
+            }
+        }
+    }
+
+    /**
+     * @param dateColumn the index of {@link WeatherContract.WeatherEntry#COLUMN_DATE} in the
+     *                   projection
+     */
+    public ForecastPageLoader(Context context, String locationSetting, long startDate,
+                              String[] projection, int dateColumn, int pageSize) {
+        super(context);
+        mLocationSetting = locationSetting;
+        mStartDate = startDate;
+        mProjection = projection;
+        mDateColumn = dateColumn;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Loads the page after the rows loaded so far, unless a load is running or the last page
+     * wasn't full.
+     */
+    public void loadMore() {
+        if (mLoading || !isStarted() || mCursor == null || !mCursor.hasMore) {
+            return;
+        }
+        synchronized (this) {
+            mAppend = true;
+        }
+        forceLoad();
+    }
+
+    /**
+     * @return true if the result delivered last added a page to the one before
+     */
+    public boolean isAppended() {
+        return mCursor != null && mCursor.appended;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        boolean append;
+        PagedCursor previous;
+        synchronized (this) {
+            append = mAppend && mCursor != null;
+            mAppend = false;
+            previous = mCursor;
+        }
+
+        if (append) {
+            Cursor page = query(previous.lastDate, mPageSize);
+            if (page == null) {
+                return null;
+            }
+            int count = page.getCount();
+            Cursor[] pages = new Cursor[previous.pages.length + 1];
+            System.arraycopy(previous.pages, 0, pages, 0, previous.pages.length);
+            pages[previous.pages.length] = page;
+            return new PagedCursor(pages, previous.rowCount + count,
+                    count > 0 ? getLastDate(page) : previous.lastDate,
+                    count == mPageSize, true);
+        }
+
+        // As many pages as were loaded, so the list keeps its length.  Each page is read after
+        // the last date of the one before, like a page that is appended.
+        int pageCount = previous == null
+                ? 1 : Math.max(1, (previous.rowCount + mPageSize - 1) / mPageSize);
+        ArrayList<Cursor> pages = new ArrayList<>(pageCount);
+        int rowCount = 0;
+        long lastDate = 0;
+        boolean hasMore = false;
+        for (int i = 0; i < pageCount; i++) {
+            Cursor page = query(lastDate, mPageSize);
+            if (page == null) {
+                for (Cursor loaded : pages) {
+                    loaded.close();
+                }
+                return null;
+            }
+            // Fill the window here, as CursorLoader does
+            int count = page.getCount();
+            if (i == 0) {
+                // A change from here on is seen, even one while the later pages are read
+                page.registerContentObserver(mObserver);
+            }
+            pages.add(page);
+            rowCount += count;
+            if (count > 0) {
+                lastDate = getLastDate(page);
+            }
+            hasMore = count == mPageSize;
+            if (!hasMore) {
+                break;
+            }
+        }
+        return new PagedCursor(pages.toArray(new Cursor[pages.size()]), rowCount, lastDate,
+                hasMore, false);
+    }
+
+    private Cursor query(long afterDate, int pageSize) {
+        return getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                        mLocationSetting, mStartDate, afterDate, pageSize),
+                mProjection, null, null, null);
+    }
+
+    private long getLastDate(Cursor page) {
+        page.moveToLast();
+        long date = page.getLong(mDateColumn);
+        page.moveToPosition(-1);
+        return date;
+    }
+
+    @Override
+    protected void onForceLoad() {
+        mLoading = true;
+        super.onForceLoad();
+    }
+
+    @Override
+    public void onContentChanged() {
+        // A page appended to stale pages would be stale too
+        synchronized (this) {
+            mAppend = false;
+        }
+        super.onContentChanged();
+    }
+
+    /* Runs on the UI thread */
+    @Override
+    public void deliverResult(Cursor cursor) {
+        mLoading = false;
+        PagedCursor result = (PagedCursor) cursor;
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            if (result != null) {
+                result.release();
+            }
+            return;
+        }
+        PagedCursor oldCursor;
+        synchronized (this) {
+            oldCursor = mCursor;
+            mCursor = result;
+        }
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        // An appended result still uses the old pages, so only the old result's views of them
+        // are closed
+        if (oldCursor != null && oldCursor != result && !oldCursor.isClosed()) {
+            if (result != null && result.appended) {
+                oldCursor.close();
+            } else {
+                oldCursor.closePages();
+            }
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+        mLoading = false;
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        if (cursor != null) {
+            ((PagedCursor) cursor).release();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped
+        onStopLoading();
+
+        if (mCursor != null && !mCursor.isClosed()) {
+            mCursor.closePages();
+        }
+        mCursor = null;
+    }
+}
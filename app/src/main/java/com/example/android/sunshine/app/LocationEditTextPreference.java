@@ -19,18 +19,44 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
-import android.os.Bundle;
+import android.database.Cursor;
 import android.preference.EditTextPreference;
+import android.support.v4.widget.SimpleCursorAdapter;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.FilterQueryProvider;
 
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * The location setting, with the cities whose name starts with what is typed suggested below it,
+ * so a misspelt city can be caught before a sync fails on it.  Choosing a suggestion enters its
+ * location setting.
+ */
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
 
+    private static final String[] CITY_COLUMNS = {
+            WeatherContract.CityEntry._ID,
+            WeatherContract.CityEntry.COLUMN_NAME,
+            WeatherContract.CityEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // These indices are tied to CITY_COLUMNS.
+    static final int COL_CITY_LOCATION_SETTING = 2;
+
+    // Shown in the dialog in place of the preference's own EditText, whose text is only set from
+    // it when the dialog closes
+    private final AutoCompleteTextView mCityView;
+    private final SimpleCursorAdapter mCityAdapter;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -42,15 +68,14 @@ public class LocationEditTextPreference extends EditTextPreference {
         } finally {
             a.recycle();
         }
-    }
 
-
-    @Override
-    protected void showDialog(Bundle state) {
-        super.showDialog(state);
-
-        EditText et = getEditText();
-        et.addTextChangedListener(new TextWatcher() {
+        mCityAdapter = createCityAdapter(context);
+        mCityView = new AutoCompleteTextView(context, attrs);
+        // The ID the dialog's text is saved and restored under
+        mCityView.setId(android.R.id.edit);
+        mCityView.setThreshold(mMinLength);
+        mCityView.setAdapter(mCityAdapter);
+        mCityView.addTextChangedListener(new TextWatcher() {
 
 
             @Override
@@ -81,4 +106,52 @@ public class LocationEditTextPreference extends EditTextPreference {
             }
         });
     }
+
+    private static SimpleCursorAdapter createCityAdapter(final Context context) {
+        SimpleCursorAdapter adapter = new SimpleCursorAdapter(context,
+                android.R.layout.simple_list_item_2, null,
+                new String[] {WeatherContract.CityEntry.COLUMN_NAME,
+                        WeatherContract.CityEntry.COLUMN_LOCATION_SETTING},
+                new int[] {android.R.id.text1, android.R.id.text2}, 0);
+        // Runs on the filter's thread, so the search doesn't hold up typing
+        adapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (constraint == null) {
+                    return null;
+                }
+                return context.getContentResolver().query(
+                        WeatherContract.CityEntry.buildCitySearch(constraint.toString()),
+                        CITY_COLUMNS, null, null, null);
+            }
+        });
+        adapter.setStringConversionColumn(COL_CITY_LOCATION_SETTING);
+        return adapter;
+    }
+
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        // The view is kept from one dialog to the next
+        ViewGroup oldParent = (ViewGroup) mCityView.getParent();
+        if (oldParent != null) {
+            oldParent.removeView(mCityView);
+        }
+        super.onAddEditTextToDialogView(dialogView, mCityView);
+    }
+
+    @Override
+    protected void onBindDialogView(View view) {
+        super.onBindDialogView(view);
+        // Without suggestions for the setting the dialog opens with
+        mCityView.setAdapter(null);
+        mCityView.setText(getText());
+        mCityView.setAdapter(mCityAdapter);
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        getEditText().setText(mCityView.getText());
+        mCityAdapter.changeCursor(null);
+        super.onDialogClosed(positiveResult);
+    }
 }
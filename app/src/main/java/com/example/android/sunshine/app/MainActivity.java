@@ -15,13 +15,17 @@
  */
 package com.example.android.sunshine.app;
 
+import android.Manifest;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
+import android.support.v4.content.ContextCompat;
 import android.support.v4.util.Pair;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -36,15 +40,18 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
-public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
+public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback,
+        NearestLocationFinder.Callback {
 
     private final String LOG_TAG = MainActivity.class.getSimpleName();
     private static final String DETAILFRAGMENT_TAG = "DFTAG";
     private final static int PLAY_SERVICES_RESOLUTION_REQUEST = 9000;
+    private final static int LOCATION_PERMISSION_REQUEST = 9001;
     public static final String SENT_TOKEN_TO_SERVER = "sentTokenToServer";
 
     private boolean mTwoPane;
     private String mLocation;
+    private NearestLocationFinder mNearestLocationFinder;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -90,6 +97,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         }
 
         SunshineSyncAdapter.initializeSyncAdapter(this);
+        mNearestLocationFinder = new NearestLocationFinder(this, this);
 
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
@@ -135,6 +143,56 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     @Override
     protected void onResume() {
         super.onResume();
+        updateLocation();
+        if (Utility.isDeviceLocationEnabled(this)) {
+            if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION)
+                    == PackageManager.PERMISSION_GRANTED) {
+                mNearestLocationFinder.start();
+            } else {
+                ActivityCompat.requestPermissions(this,
+                        new String[] {Manifest.permission.ACCESS_COARSE_LOCATION},
+                        LOCATION_PERMISSION_REQUEST);
+            }
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        mNearestLocationFinder.stop();
+        super.onPause();
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        // When it's granted, onResume, which comes next, looks for the nearest location
+        if (requestCode == LOCATION_PERMISSION_REQUEST && (grantResults.length == 0
+                || grantResults[0] != PackageManager.PERMISSION_GRANTED)) {
+            // Don't ask again every time the activity resumes
+            PreferenceManager.getDefaultSharedPreferences(this).edit()
+                    .putBoolean(getString(R.string.pref_use_device_location_key), false)
+                    .apply();
+        }
+    }
+
+    @Override
+    public void onNearestLocationFound(String locationSetting) {
+        // It was synced before, but it may have been dropped from the saved locations since and
+        // its days moved to the history.  The sync is skipped if its forecast is fresh.
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putString(getString(R.string.pref_location_key), locationSetting)
+                .apply();
+        Utility.addSavedLocation(this, locationSetting);
+        Utility.restoreLocationStatus(this);
+        updateLocation();
+        SunshineSyncAdapter.syncImmediately(this);
+        // The widgets and Muzei show the preferred location too, and a sync of a fresh forecast
+        // won't tell them
+        SunshineSyncAdapter.notifyDataUpdated(this);
+    }
+
+    private void updateLocation() {
         String location = Utility.getPreferredLocation( this );
         // update the location in our second pane using the fragment manager
             if (location != null && !location.equals(mLocation)) {
@@ -2,6 +2,7 @@ package com.example.android.sunshine.app;
 
 import android.util.Log;
 
+import com.example.android.sunshine.app.sync.AdaptiveSyncScheduler;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.WearableListenerService;
@@ -20,6 +21,8 @@ public class MessageListener extends WearableListenerService {
         Log.i("Log", "message received");
 
         if(messageEvent.getPath().equals(SYNC_NOW)){
+            // A watch face showing the weather keeps the periodic syncs frequent
+            new AdaptiveSyncScheduler(getApplicationContext()).noteWatchFaceSeen();
             SunshineSyncAdapter.syncImmediately(getApplicationContext());
         }
     }
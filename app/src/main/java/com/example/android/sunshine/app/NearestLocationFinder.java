@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.location.Location;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationServices;
+
+/**
+ * Finds the stored location nearest to where the device last was, so the forecast can follow the
+ * device between the places that have synced already without asking for a sync.  The device's
+ * position comes from the last fix of the fused location provider, which costs no battery.
+ */
+public class NearestLocationFinder implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+    private static final String LOG_TAG = NearestLocationFinder.class.getSimpleName();
+
+    // A stored location further away than this is somewhere else
+    static final double RADIUS_METERS = 20000;
+
+    public interface Callback {
+        /**
+         * Called on the main thread with the setting of the nearest stored location, when it
+         * isn't the preferred location already.
+         */
+        void onNearestLocationFound(String locationSetting);
+    }
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final GoogleApiClient mGoogleApiClient;
+    // The lookup of the nearest location, while it runs
+    private AsyncTask<Void, Void, String> mTask;
+
+    public NearestLocationFinder(Context context, Callback callback) {
+        mContext = context.getApplicationContext();
+        mCallback = callback;
+        mGoogleApiClient = new GoogleApiClient.Builder(mContext)
+                .addApi(LocationServices.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    public void start() {
+        mGoogleApiClient.connect();
+    }
+
+    /**
+     * Stops looking.  A lookup that is still running is cancelled, so the callback isn't called
+     * after this.
+     */
+    public void stop() {
+        mGoogleApiClient.disconnect();
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+    }
+
+    @Override
+    public void onConnected(Bundle connectionHint) {
+        if (ContextCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_COARSE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            mGoogleApiClient.disconnect();
+            return;
+        }
+        Location location = LocationServices.FusedLocationApi.getLastLocation(mGoogleApiClient);
+        mGoogleApiClient.disconnect();
+        if (location == null) {
+            return;
+        }
+        final double latitude = location.getLatitude();
+        final double longitude = location.getLongitude();
+        if (mTask != null) {
+            mTask.cancel(false);
+        }
+        mTask = new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                return findNearestLocation(mContext, latitude, longitude);
+            }
+
+            @Override
+            protected void onPostExecute(String locationSetting) {
+                mTask = null;
+                if (locationSetting != null
+                        && !locationSetting.equals(Utility.getPreferredLocation(mContext))) {
+                    mCallback.onNearestLocationFound(locationSetting);
+                }
+            }
+        }.execute();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+        Log.d(LOG_TAG, "Couldn't connect for the device location: " + connectionResult);
+    }
+
+    /**
+     * @return the setting of the stored location nearest to the point within RADIUS_METERS, or
+     * null if there is none
+     */
+    static String findNearestLocation(Context context, double latitude, double longitude) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.buildLocationNear(latitude, longitude,
+                        RADIUS_METERS),
+                new String[] {WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
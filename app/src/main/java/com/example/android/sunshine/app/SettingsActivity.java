@@ -50,6 +50,7 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_history_days_key)));
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -97,7 +98,11 @@ public class SettingsActivity extends PreferenceActivity
                 preference.setSummary(listPreference.getEntries()[prefIndex]);
             }
         } else if (key.equals(getString(R.string.pref_location_key))) {
-            @SunshineSyncAdapter.LocationStatus int status = Utility.getLocationStatus(this);
+            // For a new value, show what the last sync found for it if it was synced before
+            @SunshineSyncAdapter.LocationStatus int status =
+                    stringValue.equals(Utility.getPreferredLocation(this))
+                            ? Utility.getLocationStatus(this)
+                            : Utility.getLocationStatus(this, stringValue);
             switch (status) {
                 case SunshineSyncAdapter.LOCATION_STATUS_OK:
                     preference.setSummary(stringValue);
@@ -123,6 +128,10 @@ public class SettingsActivity extends PreferenceActivity
     // This gets called before the preference is changed
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
+        if (preference.getKey().equals(getString(R.string.pref_location_key))) {
+            // Keep the location we're leaving in sync, so switching back to it is instant
+            Utility.addSavedLocation(this, Utility.getPreferredLocation(this));
+        }
         setPreferenceSummary(preference, value);
         return true;
     }
@@ -133,8 +142,11 @@ public class SettingsActivity extends PreferenceActivity
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
-            // first clear locationStatus
-            Utility.resetLocationStatus(this);
+            // first show what we know about it, then refresh it along with the other
+            // saved locations.  If it was saved before its forecast is already stored, so
+            // the forecast list doesn't have to wait for the sync.
+            Utility.addSavedLocation(this, Utility.getPreferredLocation(this));
+            Utility.restoreLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
@@ -24,18 +24,45 @@ import android.text.format.Time;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
+    // How many locations are kept up to date by the sync adapter, including the preferred one
+    public static final int MAX_SAVED_LOCATIONS = 5;
+
     public static String getPreferredLocation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_location_key),
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * @return true if the preferred location follows the device to the nearest saved location
+     */
+    public static boolean isDeviceLocationEnabled(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(context.getString(R.string.pref_use_device_location_key),
+                Boolean.parseBoolean(
+                        context.getString(R.string.pref_use_device_location_default)));
+    }
+
+    /**
+     * @return the number of days past forecasts are kept for, 0 for none
+     */
+    public static int getHistoryDays(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return Integer.parseInt(prefs.getString(context.getString(R.string.pref_history_days_key),
+                context.getString(R.string.pref_history_days_month)));
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
@@ -575,4 +602,93 @@ public class Utility {
         spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
         spe.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * @param c Context used to get the key name
+     * @param locationSetting the location the status is for
+     * @return the SharedPreferences key holding the status of one location
+     */
+    static public String getLocationStatusKey(Context c, String locationSetting) {
+        return c.getString(R.string.pref_location_status_key) + "_" + locationSetting;
+    }
+
+    /**
+     *
+     * @param c Context used to get the SharedPreferences
+     * @param locationSetting the location to get the status of
+     * @return the location status integer type of that location
+     */
+    @SuppressWarnings("ResourceType")
+    static public @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context c, String locationSetting){
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getInt(getLocationStatusKey(c, locationSetting),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * Sets the location status to the last known status of the preferred location, so that
+     * switching to a location that has synced before shows its state straight away.
+     * @param c Context used to get the SharedPreferences
+     */
+    static public void restoreLocationStatus(Context c){
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor spe = sp.edit();
+        spe.putInt(c.getString(R.string.pref_location_status_key),
+                getLocationStatus(c, getPreferredLocation(c)));
+        spe.apply();
+    }
+
+    /**
+     * Returns the locations the sync adapter keeps up to date: the preferred location first,
+     * then the most recently used others, at most {@link #MAX_SAVED_LOCATIONS} in all.
+     *
+     * @param c Context used to get the SharedPreferences
+     */
+    static public List<String> getSavedLocations(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String preferred = getPreferredLocation(c);
+        List<String> locations = new ArrayList<>(MAX_SAVED_LOCATIONS);
+        locations.add(preferred);
+
+        String saved = sp.getString(c.getString(R.string.pref_saved_locations_key), null);
+        if (saved != null) {
+            try {
+                // Stored as a JSON array, because a location like "London,uk" can hold anything
+                JSONArray array = new JSONArray(saved);
+                for (int i = 0; i < array.length() && locations.size() < MAX_SAVED_LOCATIONS;
+                        i++) {
+                    String location = array.getString(i);
+                    if (!locations.contains(location)) {
+                        locations.add(location);
+                    }
+                }
+            } catch (JSONException e) {
+                // Start the list again rather than fail every sync
+                sp.edit().remove(c.getString(R.string.pref_saved_locations_key)).apply();
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Moves a location to the front of the saved locations, dropping the least recently used one
+     * if the list is full.
+     *
+     * @param c Context used to get the SharedPreferences
+     * @param locationSetting the location, as entered in settings
+     */
+    static public void addSavedLocation(Context c, String locationSetting) {
+        List<String> locations = getSavedLocations(c);
+        locations.remove(locationSetting);
+        locations.add(0, locationSetting);
+
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < locations.size() && i < MAX_SAVED_LOCATIONS; i++) {
+            array.put(locations.get(i));
+        }
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        sp.edit().putString(c.getString(R.string.pref_saved_locations_key), array.toString())
+                .apply();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A full-text index of city names for completing the location setting, over a bundled list of
+ * cities and the locations stored so far.
+ *
+ * Stored locations are indexed with the negated row ID as docid and bundled cities with their
+ * line number, so a search without ORDER BY returns the stored locations first and can stop at
+ * its limit without reading every match.  From Jelly Bean on, the index keeps the prefixes of up
+ * to three letters of every word as terms of their own, so the short prefixes typed first don't
+ * merge the doclists of every word they start.  Before Honeycomb there is only FTS3, which
+ * answers the same queries.
+ */
+class CitySearch {
+    // Columns of the insert statements
+    private static final String COLUMNS = "docid, " + CityEntry.COLUMN_NAME + ", " +
+            CityEntry.COLUMN_LOCATION_SETTING;
+
+    // The columns of CityEntry, with the docid as the _id adapters need
+    private static final String[] PROJECTION_COLUMNS = {
+            CityEntry._ID, CityEntry.COLUMN_NAME, CityEntry.COLUMN_LOCATION_SETTING};
+    private static final SQLiteQueryBuilder sQueryBuilder = new SQLiteQueryBuilder();
+
+    static {
+        Map<String, String> projectionMap = new HashMap<>();
+        projectionMap.put(CityEntry._ID, "docid AS " + CityEntry._ID);
+        projectionMap.put(CityEntry.COLUMN_NAME, CityEntry.COLUMN_NAME);
+        projectionMap.put(CityEntry.COLUMN_LOCATION_SETTING, CityEntry.COLUMN_LOCATION_SETTING);
+        sQueryBuilder.setTables(CityEntry.TABLE_NAME);
+        sQueryBuilder.setProjectionMap(projectionMap);
+    }
+
+    private CitySearch() {
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        String module;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            module = "fts4(" + CityEntry.COLUMN_NAME + ", " + CityEntry.COLUMN_LOCATION_SETTING +
+                    ", prefix=\"1,2,3\")";
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            module = "fts4(" + CityEntry.COLUMN_NAME + ", " + CityEntry.COLUMN_LOCATION_SETTING +
+                    ")";
+        } else {
+            module = "fts3(" + CityEntry.COLUMN_NAME + ", " + CityEntry.COLUMN_LOCATION_SETTING +
+                    ")";
+        }
+        db.execSQL("CREATE VIRTUAL TABLE " + CityEntry.TABLE_NAME + " USING " + module);
+    }
+
+    /**
+     * Indexes the location table again, after any change to it.  There are only a few locations.
+     */
+    static void indexLocations(SQLiteDatabase db) {
+        db.delete(CityEntry.TABLE_NAME, "docid < 0", null);
+        db.execSQL("INSERT INTO " + CityEntry.TABLE_NAME + " (" + COLUMNS + ") SELECT -" +
+                LocationEntry._ID + ", " + LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " FROM " + LocationEntry.TABLE_NAME);
+    }
+
+    /**
+     * @return true if the bundled cities have been indexed
+     */
+    static boolean isSeeded(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT docid FROM " + CityEntry.TABLE_NAME +
+                " WHERE docid > 0 LIMIT 1", null);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Indexes a city list of one "name[tab]country code" line per city.  The location setting of
+     * a city is "name,country code", which OpenWeatherMap resolves to that city.
+     *
+     * @return the number of cities indexed
+     */
+    static int seed(SQLiteDatabase db, InputStream cities) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(cities, "UTF-8"));
+        SQLiteStatement statement = db.compileStatement(
+                "INSERT INTO " + CityEntry.TABLE_NAME + " (" + COLUMNS + ") VALUES (?, ?, ?)");
+        int count = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, tab);
+                statement.bindLong(1, ++count);
+                statement.bindString(2, name);
+                statement.bindString(3, name + "," + line.substring(tab + 1));
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+        return count;
+    }
+
+    /**
+     * Turns what was typed into a query for names that have a word starting with each word
+     * typed.  Only letters and digits are kept, so nothing typed is read as query syntax.
+     *
+     * @return the query, or null if nothing searchable was typed
+     */
+    static String buildMatchQuery(String typed) {
+        StringBuilder query = new StringBuilder();
+        for (String word : typed.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() == 0) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(word).append('*');
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    /**
+     * @return the cities whose name has words starting with those typed, stored locations first
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, String typed, int limit) {
+        String match = buildMatchQuery(typed);
+        if (match == null) {
+            return new MatrixCursor(projection != null ? projection : PROJECTION_COLUMNS);
+        }
+        return sQueryBuilder.query(db,
+                projection,
+                CityEntry.COLUMN_NAME + " MATCH ?",
+                new String[] {match},
+                null, null, null, Integer.toString(limit));
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * A bounded LRU cache of forecast query results for {@link WeatherProvider}.
+ *
+ * Right after a sync the forecast list, both widgets, Muzei, the notification and the wearable
+ * all ask for the same rows of the preferred location.  Results are kept as immutable snapshots
+ * and each hit is served as a {@link SnapshotCursor} over the shared snapshot, so a hit doesn't
+ * touch the database or copy any rows.
+ *
+ * The provider invalidates a location after every committed write that touched it.  A result
+ * read while such a write was committing is not stored, which {@link #getGeneration()} is for.
+ */
+class ForecastCache {
+    // Results bigger than this share of the cache are served but not stored
+    private static final int MAX_RESULT_SHARE = 4;
+
+    /**
+     * What a cached result depends on.  Exactly one of locationSetting and locationId is set,
+     * depending on the kind of URI.
+     */
+    static final class Key {
+        final int match;
+        final String locationSetting;
+        final long locationId;
+        final long date;
+        final String[] projection;
+        final String sortOrder;
+        // The page of a paged URI, both 0 for the whole result
+        final long afterDate;
+        final int pageSize;
+
+        Key(int match, String locationSetting, long locationId, long date,
+            String[] projection, String sortOrder) {
+            this(match, locationSetting, locationId, date, projection, sortOrder, 0, 0);
+        }
+
+        Key(int match, String locationSetting, long locationId, long date,
+            String[] projection, String sortOrder, long afterDate, int pageSize) {
+            this.match = match;
+            this.locationSetting = locationSetting;
+            this.locationId = locationId;
+            this.date = date;
+            this.projection = projection == null ? null : projection.clone();
+            this.sortOrder = sortOrder;
+            this.afterDate = afterDate;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return match == other.match
+                    && locationId == other.locationId
+                    && date == other.date
+                    && afterDate == other.afterDate
+                    && pageSize == other.pageSize
+                    && equal(locationSetting, other.locationSetting)
+                    && equal(sortOrder, other.sortOrder)
+                    && Arrays.equals(projection, other.projection);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = match;
+            result = 31 * result + (locationSetting == null ? 0 : locationSetting.hashCode());
+            result = 31 * result + (int) (locationId ^ (locationId >>> 32));
+            result = 31 * result + (int) (date ^ (date >>> 32));
+            result = 31 * result + Arrays.hashCode(projection);
+            result = 31 * result + (sortOrder == null ? 0 : sortOrder.hashCode());
+            result = 31 * result + (int) (afterDate ^ (afterDate >>> 32));
+            result = 31 * result + pageSize;
+            return result;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private final LruCache<Key, SnapshotCursor.Snapshot> mCache;
+    private final int mMaxRows;
+    // Bumped by every invalidation
+    private long mGeneration;
+
+    /**
+     * @param maxRows the number of rows, over all results, to keep
+     */
+    ForecastCache(int maxRows) {
+        mMaxRows = maxRows;
+        mCache = new LruCache<Key, SnapshotCursor.Snapshot>(maxRows) {
+            @Override
+            protected int sizeOf(Key key, SnapshotCursor.Snapshot value) {
+                // An empty result still takes a slot
+                return Math.max(1, value.count);
+            }
+        };
+    }
+
+    /**
+     * Snapshots need the column types of a cursor, which older releases don't give.
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * @return a cursor over the cached result, or null on a miss
+     */
+    Cursor get(Key key) {
+        SnapshotCursor.Snapshot snapshot = mCache.get(key);
+        return snapshot == null ? null : new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * @return the generation to pass to {@link #put}, read before querying the database
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Reads a query result into a snapshot and caches it, unless the location was invalidated
+     * since the generation was read.
+     *
+     * @param cursor the database cursor, which is closed
+     * @return a cursor over the result
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor put(Key key, long generation, Cursor cursor) {
+        SnapshotCursor.Snapshot snapshot;
+        try {
+            snapshot = SnapshotCursor.Snapshot.of(cursor);
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            if (generation == mGeneration && snapshot.count <= mMaxRows / MAX_RESULT_SHARE) {
+                mCache.put(key, snapshot);
+            }
+        }
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Drops the results of one location, given by its setting and row ID.
+     */
+    synchronized void invalidateLocation(String locationSetting, long locationId) {
+        mGeneration++;
+        for (Key key : mCache.snapshot().keySet()) {
+            if (key.locationId == locationId
+                    || (key.locationSetting != null && key.locationSetting.equals(locationSetting))) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        // Not evictAll, which would count these as evictions
+        for (Key key : mCache.snapshot().keySet()) {
+            mCache.remove(key);
+        }
+    }
+
+    int hitCount() {
+        return mCache.hitCount();
+    }
+
+    int missCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * @return the number of results dropped to make room, not counting invalidations
+     */
+    int evictionCount() {
+        return mCache.evictionCount();
+    }
+}
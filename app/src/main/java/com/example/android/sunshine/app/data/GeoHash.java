@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Geohashes of locations, so that the locations near a point can be found with a few ranges of an
+ * ordinary index.  A geohash interleaves the bits of the longitude and the latitude, so places
+ * whose hashes share a prefix lie in the same cell, and each character added divides a cell into
+ * 32.  Android's SQLite isn't built with the R*Tree module, which is why this isn't one.
+ *
+ * The location table keeps the geohash of every location in an indexed column.  A search reads
+ * the locations in the nine cells around the point, which hold everything within the radius,
+ * and measures the distance to each of them.
+ */
+class GeoHash {
+    // The length stored, cells of a few centimetres
+    static final int PRECISION = 12;
+
+    static final String LOCATION_GEOHASH_INDEX = "location_geohash";
+    static final String SQL_CREATE_INDEX = "CREATE INDEX " + LOCATION_GEOHASH_INDEX + " ON " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_GEOHASH + ")";
+
+    // Sorts after every character of a geohash, so a prefix range ends just below it
+    private static final String PREFIX_END = "~";
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    private GeoHash() {
+    }
+
+    static String encode(double latitude, double longitude, int precision) {
+        double minLatitude = -90, maxLatitude = 90;
+        double minLongitude = -180, maxLongitude = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean longitudeBit = true;
+        int bits = 0;
+        int value = 0;
+        while (hash.length() < precision) {
+            if (longitudeBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    value = value * 2 + 1;
+                    minLongitude = middle;
+                } else {
+                    value = value * 2;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    value = value * 2 + 1;
+                    minLatitude = middle;
+                } else {
+                    value = value * 2;
+                    maxLatitude = middle;
+                }
+            }
+            longitudeBit = !longitudeBit;
+            if (++bits == 5) {
+                hash.append(BASE32.charAt(value));
+                bits = 0;
+                value = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    // The size of a cell of the given length in degrees
+    private static double getCellLatitude(int precision) {
+        return 180 / Math.pow(2, (5 * precision) / 2);
+    }
+
+    private static double getCellLongitude(int precision) {
+        return 360 / Math.pow(2, (5 * precision + 1) / 2);
+    }
+
+    /**
+     * Picks the longest cells that are at least the radius across at the point, and returns the
+     * prefixes of the cell that holds the point and the eight around it.  Every place within the
+     * radius has one of them.
+     *
+     * @return the prefixes, or an empty prefix if the radius is larger than the cells
+     */
+    static Set<String> getCoveringPrefixes(double latitude, double longitude,
+                                           double radiusMeters) {
+        double latitudeScale = Math.cos(Math.toRadians(latitude));
+        int precision = PRECISION;
+        while (precision > 0
+                && (getCellLatitude(precision) * METERS_PER_DEGREE < radiusMeters
+                || getCellLongitude(precision) * METERS_PER_DEGREE * latitudeScale
+                        < radiusMeters)) {
+            precision--;
+        }
+        Set<String> prefixes = new LinkedHashSet<>();
+        if (precision == 0) {
+            prefixes.add("");
+            return prefixes;
+        }
+        double cellLatitude = getCellLatitude(precision);
+        double cellLongitude = getCellLongitude(precision);
+        for (int i = -1; i <= 1; i++) {
+            double neighbourLatitude = Math.max(-90, Math.min(90, latitude + i * cellLatitude));
+            for (int j = -1; j <= 1; j++) {
+                double neighbourLongitude = longitude + j * cellLongitude;
+                // Across the antimeridian
+                if (neighbourLongitude >= 180) {
+                    neighbourLongitude -= 360;
+                } else if (neighbourLongitude < -180) {
+                    neighbourLongitude += 360;
+                }
+                prefixes.add(encode(neighbourLatitude, neighbourLongitude, precision));
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * @return the great-circle distance between two points in meters
+     */
+    static double distance(double latitude1, double longitude1, double latitude2,
+                           double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * 6371000 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Fills in the geohash of the locations that have none, which are those inserted or moved
+     * since the last call.  There are only a few locations.
+     */
+    static void indexLocations(SQLiteDatabase db) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[] {LocationEntry._ID, LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG},
+                LocationEntry.COLUMN_GEOHASH + " IS NULL",
+                null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.put(LocationEntry.COLUMN_GEOHASH,
+                        encode(cursor.getDouble(1), cursor.getDouble(2), PRECISION));
+                db.update(LocationEntry.TABLE_NAME, values, LocationEntry._ID + " = ?",
+                        new String[] {Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the stored locations within the radius of the point, nearest first, with the
+     * columns of the projection, or all of them and the distance if there is none
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, double latitude,
+                        double longitude, double radiusMeters) {
+        Set<String> prefixes = getCoveringPrefixes(latitude, longitude, radiusMeters);
+        StringBuilder selection = new StringBuilder();
+        String[] selectionArgs = new String[prefixes.size() * 2];
+        int i = 0;
+        for (String prefix : prefixes) {
+            if (selection.length() > 0) {
+                selection.append(" OR ");
+            }
+            selection.append("(" + LocationEntry.COLUMN_GEOHASH + " >= ? AND " +
+                    LocationEntry.COLUMN_GEOHASH + " < ?)");
+            selectionArgs[i++] = prefix;
+            selectionArgs[i++] = prefix + PREFIX_END;
+        }
+
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, selection.toString(),
+                selectionArgs, null, null, null);
+        try {
+            if (projection == null) {
+                String[] columns = cursor.getColumnNames();
+                projection = new String[columns.length + 1];
+                System.arraycopy(columns, 0, projection, 0, columns.length);
+                projection[columns.length] = LocationEntry.COLUMN_DISTANCE;
+            }
+            // The index of each column of the projection in the cursor, -1 for the distance
+            int[] columnIndices = new int[projection.length];
+            for (int j = 0; j < projection.length; j++) {
+                columnIndices[j] = LocationEntry.COLUMN_DISTANCE.equals(projection[j]) ? -1 :
+                        cursor.getColumnIndexOrThrow(projection[j]);
+            }
+            int latitudeIndex = cursor.getColumnIndex(LocationEntry.COLUMN_COORD_LAT);
+            int longitudeIndex = cursor.getColumnIndex(LocationEntry.COLUMN_COORD_LONG);
+
+            List<Object[]> rows = new ArrayList<>();
+            final List<Double> distances = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                double distance = distance(latitude, longitude, cursor.getDouble(latitudeIndex),
+                        cursor.getDouble(longitudeIndex));
+                // The cells reach further than the radius
+                if (distance > radiusMeters) {
+                    continue;
+                }
+                // Cursor.getType needs Honeycomb, and the strings convert back to any type
+                Object[] row = new Object[projection.length];
+                for (int j = 0; j < projection.length; j++) {
+                    row[j] = columnIndices[j] == -1 ? distance :
+                            cursor.getString(columnIndices[j]);
+                }
+                rows.add(row);
+                distances.add(distance);
+            }
+
+            List<Integer> order = new ArrayList<>(rows.size());
+            for (int j = 0; j < rows.size(); j++) {
+                order.add(j);
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return Double.compare(distances.get(lhs), distances.get(rhs));
+                }
+            });
+            MatrixCursor nearest = new MatrixCursor(projection, rows.size());
+            for (int index : order) {
+                nearest.addRow(rows.get(index));
+            }
+            return nearest;
+        } finally {
+            cursor.close();
+        }
+    }
+}
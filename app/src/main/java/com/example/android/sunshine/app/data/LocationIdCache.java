@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+
+/**
+ * The row IDs of stored locations by their setting, and the other way round, for the whole
+ * process.  A location's row ID doesn't change while it is stored, so once one lookup has read it
+ * every sync after that can skip the query.
+ *
+ * Only {@link WeatherProvider} fills it, from what it reads, and it empties it whenever the
+ * location table is updated or deleted from, and when a transaction is rolled back.  A mapping
+ * read before such a change isn't stored, which {@link #getGeneration()} is for.  There are only
+ * as many entries as saved locations, so nothing is evicted.
+ */
+public final class LocationIdCache {
+    private static final HashMap<String, Long> sIds = new HashMap<>();
+    private static final HashMap<Long, String> sSettings = new HashMap<>();
+    // Bumped by every invalidation
+    private static long sGeneration;
+
+    private LocationIdCache() {
+    }
+
+    /**
+     * @return the row ID of the location, or -1 if it isn't known
+     */
+    public static synchronized long getId(String locationSetting) {
+        Long locationId = sIds.get(locationSetting);
+        return locationId == null ? -1 : locationId;
+    }
+
+    /**
+     * @return the setting of the location with the row ID, or null if it isn't known
+     */
+    static synchronized String getSetting(long locationId) {
+        return sSettings.get(locationId);
+    }
+
+    /**
+     * @return the generation to pass to {@link #put}, read before querying the database
+     */
+    static synchronized long getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Stores a mapping read from the database, unless the location table changed since the
+     * generation was read.
+     */
+    static synchronized void put(String locationSetting, long locationId, long generation) {
+        if (generation == sGeneration) {
+            sIds.put(locationSetting, locationId);
+            sSettings.put(locationId, locationSetting);
+        }
+    }
+
+    static synchronized void invalidate() {
+        sGeneration++;
+        sIds.clear();
+        sSettings.clear();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How long the provider's operations take, kept in memory for dumpsys.  Every call is counted in
+ * a histogram of its operation and URI type, and the calls that took at least slowMillis are
+ * kept, with the URI and the caller, in a ring of the most recent ones.
+ */
+class ProviderStats {
+    // Upper bounds of the histogram buckets in milliseconds.  The last bucket has no bound.
+    static final long[] BUCKET_MILLIS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+    private static final class Histogram {
+        final String operation;
+        final int match;
+        final long[] counts = new long[BUCKET_MILLIS.length + 1];
+        long calls;
+        long rows;
+        long totalNanos;
+        long maxNanos;
+
+        Histogram(String operation, int match) {
+            this.operation = operation;
+            this.match = match;
+        }
+    }
+
+    private static final class SlowCall {
+        long timeMillis;
+        String operation;
+        int match;
+        Uri uri;
+        int rows;
+        long elapsedNanos;
+        String caller;
+    }
+
+    private final long mSlowNanos;
+    // By operation and match code, sorted so the dump reads the same every time
+    private final Map<String, Histogram> mHistograms = new TreeMap<>();
+    private final SlowCall[] mSlowCalls;
+    // The number of slow calls ever recorded, so the ring's newest entry is at (count - 1) % size
+    private long mSlowCount;
+    private final long mSinceMillis = System.currentTimeMillis();
+
+    ProviderStats(long slowMillis, int slowCapacity) {
+        mSlowNanos = slowMillis * 1000000;
+        mSlowCalls = new SlowCall[slowCapacity];
+    }
+
+    /**
+     * @return the index of the histogram bucket of a call that took elapsedNanos
+     */
+    static int getBucket(long elapsedNanos) {
+        long millis = elapsedNanos / 1000000;
+        for (int i = 0; i < BUCKET_MILLIS.length; i++) {
+            if (millis < BUCKET_MILLIS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_MILLIS.length;
+    }
+
+    /**
+     * Records one call.
+     *
+     * @param operation the provider method, or the method passed to call
+     * @param match the URI matcher's code for the URI, or -1 if there is no URI
+     * @param rows the rows the call returned or changed, or -1 if the count isn't known
+     * @param caller who called, a package or, within the app, a thread
+     */
+    synchronized void record(String operation, int match, Uri uri, int rows, long elapsedNanos,
+                             String caller) {
+        String key = operation + " " + match;
+        Histogram histogram = mHistograms.get(key);
+        if (histogram == null) {
+            histogram = new Histogram(operation, match);
+            mHistograms.put(key, histogram);
+        }
+        histogram.counts[getBucket(elapsedNanos)]++;
+        histogram.calls++;
+        if (rows >= 0) {
+            histogram.rows += rows;
+        }
+        histogram.totalNanos += elapsedNanos;
+        histogram.maxNanos = Math.max(histogram.maxNanos, elapsedNanos);
+
+        if (elapsedNanos < mSlowNanos || mSlowCalls.length == 0) {
+            return;
+        }
+        int index = (int) (mSlowCount++ % mSlowCalls.length);
+        SlowCall slowCall = mSlowCalls[index];
+        if (slowCall == null) {
+            slowCall = new SlowCall();
+            mSlowCalls[index] = slowCall;
+        }
+        slowCall.timeMillis = System.currentTimeMillis();
+        slowCall.operation = operation;
+        slowCall.match = match;
+        slowCall.uri = uri;
+        slowCall.rows = rows;
+        slowCall.elapsedNanos = elapsedNanos;
+        slowCall.caller = caller;
+    }
+
+    /**
+     * @return the number of calls recorded for the operation and match code
+     */
+    synchronized long getCalls(String operation, int match) {
+        Histogram histogram = mHistograms.get(operation + " " + match);
+        return histogram != null ? histogram.calls : 0;
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        writer.println("Provider calls since " + format.format(new Date(mSinceMillis)) + ":");
+        for (Histogram histogram : mHistograms.values()) {
+            writer.println("  " + histogram.operation + " match " + histogram.match + ": "
+                    + histogram.calls + " calls, " + histogram.rows + " rows, "
+                    + formatMillis(histogram.totalNanos) + " total, "
+                    + formatMillis(histogram.totalNanos / histogram.calls) + " avg, "
+                    + formatMillis(histogram.maxNanos) + " max");
+            StringBuilder buckets = new StringBuilder("    ");
+            for (int i = 0; i < histogram.counts.length; i++) {
+                if (histogram.counts[i] == 0) {
+                    continue;
+                }
+                buckets.append(i < BUCKET_MILLIS.length ? "<" + BUCKET_MILLIS[i] : ">="
+                        + BUCKET_MILLIS[BUCKET_MILLIS.length - 1]).append("ms:")
+                        .append(histogram.counts[i]).append(' ');
+            }
+            writer.println(buckets);
+        }
+
+        writer.println("Calls of " + mSlowNanos / 1000000 + " ms or more, newest first ("
+                + mSlowCount + " in all):");
+        int kept = (int) Math.min(mSlowCount, mSlowCalls.length);
+        for (int i = 1; i <= kept; i++) {
+            SlowCall slowCall = mSlowCalls[(int) ((mSlowCount - i) % mSlowCalls.length)];
+            writer.println("  " + format.format(new Date(slowCall.timeMillis)) + " "
+                    + slowCall.operation + " match " + slowCall.match + " "
+                    + (slowCall.uri != null ? slowCall.uri : "-") + ": "
+                    + (slowCall.rows >= 0 ? slowCall.rows : "?") + " rows, " + formatMillis(slowCall.elapsedNanos) + ", by "
+                    + slowCall.caller);
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.US, "%.1f ms", nanos / 1000000.0);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Build;
+
+/**
+ * A read-only cursor over a {@link Snapshot}.  Any number of these can share one snapshot, since
+ * nothing but the position belongs to the cursor.
+ */
+class SnapshotCursor extends AbstractCursor {
+
+    /**
+     * The rows of a query result, with each value kept as the type SQLite returned it as.
+     */
+    static final class Snapshot {
+        final String[] columnNames;
+        final int count;
+        // Row after row, columnNames.length values each
+        final Object[] values;
+
+        private Snapshot(String[] columnNames, int count, Object[] values) {
+            this.columnNames = columnNames;
+            this.count = count;
+            this.values = values;
+        }
+
+        /**
+         * Reads every row of the cursor.  The cursor is left open.
+         */
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        static Snapshot of(Cursor cursor) {
+            String[] columnNames = cursor.getColumnNames();
+            int columns = columnNames.length;
+            Object[] values = new Object[cursor.getCount() * columns];
+            int row = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columns; column++) {
+                    Object value;
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            value = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            value = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            value = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            value = cursor.getBlob(column);
+                            break;
+                        default:
+                            value = null;
+                            break;
+                    }
+                    values[row * columns + column] = value;
+                }
+                row++;
+            }
+            return new Snapshot(columnNames, row, values);
+        }
+    }
+
+    private final Snapshot mSnapshot;
+
+    SnapshotCursor(Snapshot snapshot) {
+        mSnapshot = snapshot;
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mSnapshot.columnNames.length) {
+            throw new IndexOutOfBoundsException("No column " + column);
+        }
+        if (mPos < 0 || mPos >= mSnapshot.count) {
+            throw new IndexOutOfBoundsException("No row " + mPos);
+        }
+        return mSnapshot.values[mPos * mSnapshot.columnNames.length + column];
+    }
+
+    @Override
+    public int getCount() {
+        return mSnapshot.count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mSnapshot.columnNames;
+    }
+
+    // Conversions follow SQLite's: numbers read as text are formatted, text that isn't a number
+    // reads as 0
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return (long) getDouble(column);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = get(column);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value.toString().getBytes();
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return Cursor.FIELD_TYPE_NULL;
+        } else if (value instanceof Double) {
+            return Cursor.FIELD_TYPE_FLOAT;
+        } else if (value instanceof Number) {
+            return Cursor.FIELD_TYPE_INTEGER;
+        } else if (value instanceof byte[]) {
+            return Cursor.FIELD_TYPE_BLOB;
+        }
+        return Cursor.FIELD_TYPE_STRING;
+    }
+}
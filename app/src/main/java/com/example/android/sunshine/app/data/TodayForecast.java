@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The first forecast of a location from today on, which is all the widget, Muzei, the
+ * notification and the wearable show.  It is read with
+ * {@link WeatherEntry#METHOD_GET_TODAY}, which the provider usually answers from memory, and
+ * with a query before Honeycomb, which has no ContentResolver.call.  The sync adapter builds one
+ * from the forecast it just stored instead.
+ */
+public final class TodayForecast {
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    public final long date;
+    public final int weatherId;
+    public final String shortDesc;
+    public final double maxTemp;
+    public final double minTemp;
+
+    public TodayForecast(long date, int weatherId, String shortDesc, double maxTemp,
+                         double minTemp) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.shortDesc = shortDesc;
+        this.maxTemp = maxTemp;
+        this.minTemp = minTemp;
+    }
+
+    /**
+     * @return the location's first forecast dated today or later, or null if there is none
+     */
+    public static TodayForecast read(Context context, String locationSetting) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return call(context, locationSetting);
+        }
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                        System.currentTimeMillis()),
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new TodayForecast(cursor.getLong(INDEX_DATE), cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC), cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static TodayForecast call(Context context, String locationSetting) {
+        Bundle values = context.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_GET_TODAY, locationSetting, null);
+        if (values == null) {
+            return null;
+        }
+        return new TodayForecast(values.getLong(WeatherEntry.COLUMN_DATE),
+                values.getInt(WeatherEntry.COLUMN_WEATHER_ID),
+                values.getString(WeatherEntry.COLUMN_SHORT_DESC),
+                values.getDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                values.getDouble(WeatherEntry.COLUMN_MIN_TEMP));
+    }
+
+    /**
+     * @return true if this is the forecast for today, rather than for a later day because
+     * today's is missing
+     */
+    public boolean isToday() {
+        return date == WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The answers of {@link WeatherContract.WeatherEntry#METHOD_GET_TODAY} by location setting, each
+ * for the day it was read on.  The provider drops a location's answer after every committed
+ * write to it, and an answer read while such a write was committing is not stored, as with
+ * {@link ForecastCache}.
+ */
+class TodaySnapshot {
+    private static final class Entry {
+        final long today;
+        // Empty if the location has no forecast from today on
+        final Bundle values;
+
+        Entry(long today, Bundle values) {
+            this.today = today;
+            this.values = values;
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    // Bumped by every invalidation
+    private long mGeneration;
+
+    /**
+     * @return a copy of the stored answer for the location on the given day, or null if there is
+     * none
+     */
+    synchronized Bundle get(String locationSetting, long today) {
+        Entry entry = mEntries.get(locationSetting);
+        if (entry == null || entry.today != today) {
+            return null;
+        }
+        return new Bundle(entry.values);
+    }
+
+    /**
+     * @return the generation to pass to {@link #put}, read before querying the database
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    synchronized void put(String locationSetting, long today, long generation, Bundle values) {
+        if (generation == mGeneration) {
+            mEntries.put(locationSetting, new Entry(today, new Bundle(values)));
+        }
+    }
+
+    synchronized void invalidateLocation(String locationSetting) {
+        mGeneration++;
+        mEntries.remove(locationSetting);
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+    }
+}
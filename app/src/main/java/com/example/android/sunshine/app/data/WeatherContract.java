@@ -43,12 +43,24 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    // weather/id/# reads a location's weather by its row ID, which saves the join on the setting
+    public static final String PATH_LOCATION_ID = "id";
+    // location/near finds the stored locations around a point
+    public static final String PATH_NEAR = "near";
+    public static final String PATH_HISTORY = "history";
+    // weather/*/stats reads a location's rollups
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_CITY = "city";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    // The same, reusing the given Time so that normalizing many dates doesn't allocate
+    public static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -57,6 +69,9 @@ public class WeatherContract {
     /* Inner class that defines the table contents of the location table */
     public static final class LocationEntry implements BaseColumns {
 
+        // Inserting a location whose setting is already stored keeps the stored row, updates
+        // its city name, coordinates and city id where the inserted ones differ, and returns
+        // its URI, so a batch can insert a location and back-reference its row ID either way.
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_LOCATION).build();
 
@@ -81,9 +96,196 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's id for the city the location setting resolved to.  It lets several
+        // locations be fetched with one group request.  Null until the first successful sync.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // The geohash of the latitude and longitude, which the provider keeps up to date.  It
+        // indexes the locations by where they are.
+        public static final String COLUMN_GEOHASH = "geohash";
+
+        // Only in the results of location/near: how far the location is from the point, in
+        // meters.  They are sorted by it.
+        public static final String COLUMN_DISTANCE = "distance";
+
+        // Query parameters of location/near, the point in degrees and the radius in meters
+        public static final String QUERY_LATITUDE = "lat";
+        public static final String QUERY_LONGITUDE = "lon";
+        public static final String QUERY_RADIUS = "radius";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildLocationNear(double latitude, double longitude,
+                                            double radiusMeters) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(QUERY_LATITUDE, Double.toString(latitude))
+                    .appendQueryParameter(QUERY_LONGITUDE, Double.toString(longitude))
+                    .appendQueryParameter(QUERY_RADIUS, Double.toString(radiusMeters)).build();
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(QUERY_LATITUDE));
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(QUERY_LONGITUDE));
+        }
+
+        public static double getRadiusFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(QUERY_RADIUS));
+        }
+    }
+
+    /*
+        Cities to complete the location setting with: the stored locations, then a bundled list.
+        city/[typed] returns those with a word in their name starting with each word typed.
+     */
+    public static final class CityEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CITY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CITY;
+
+        public static final String TABLE_NAME = "city_search";
+
+        // The name of the city, which is what is searched
+        public static final String COLUMN_NAME = "name";
+        // What to store as the location setting to get the weather of the city
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // Query parameter with the most cities to return, DEFAULT_LIMIT if it isn't given
+        public static final String QUERY_LIMIT = "limit";
+        public static final int DEFAULT_LIMIT = 10;
+
+        public static Uri buildCitySearch(String typed) {
+            return CONTENT_URI.buildUpon().appendPath(typed).build();
+        }
+
+        public static String getTypedFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(QUERY_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return DEFAULT_LIMIT;
+        }
+    }
+
+    /*
+        Past forecasts, which have the columns of the weather table except its _id.  They are
+        kept in one table per month, so there is no TABLE_NAME.
+     */
+    public static final class HistoryEntry {
+
+        // history reads the past forecasts of every location, history/# those of one location
+        // by its row ID.  Deleting from history deletes all of it.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        // ContentResolver.call method that moves the weather rows dated before EXTRA_TODAY into
+        // the history, keeping the EXTRA_KEEP_DAYS days before today and deleting the rest, and
+        // drops the months of history that are older than that.  The result holds EXTRA_ARCHIVED
+        // and EXTRA_DROPPED_MONTHS.
+        public static final String METHOD_COMPACT = "compact_history";
+        public static final String EXTRA_TODAY = "today";
+        public static final String EXTRA_KEEP_DAYS = "keep_days";
+        public static final String EXTRA_ARCHIVED = "archived";
+        public static final String EXTRA_DROPPED_MONTHS = "dropped_months";
+
+        public static Uri buildHistoryLocationId(long locationId) {
+            return ContentUris.withAppendedId(CONTENT_URI, locationId);
+        }
+
+        public static long getLocationIdFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(1));
+        }
+    }
+
+    /*
+        Temperature, humidity and pressure of a location over a day, a week or a month, kept
+        up to date as forecasts are written.  Read through weather/[setting]/stats, with the
+        bucket size in QUERY_BUCKET and the range in QUERY_FROM and QUERY_TO.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_WEATHER + "/" + PATH_STATS;
+
+        public static final String TABLE_NAME = "weather_rollup";
+
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The first day of the bucket, a normalized date.  Weeks start on Monday.
+        public static final String COLUMN_START = "start";
+        // The number of days in the bucket that have a forecast
+        public static final String COLUMN_DAYS = "days";
+
+        // The lowest low and the highest high, and the averages of the lows and of the highs
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+
+        public static final String COLUMN_MIN_HUMIDITY = "min_humidity";
+        public static final String COLUMN_MAX_HUMIDITY = "max_humidity";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+
+        public static final String COLUMN_MIN_PRESSURE = "min_pressure";
+        public static final String COLUMN_MAX_PRESSURE = "max_pressure";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+
+        // Query parameters.  The buckets that start from the one holding QUERY_FROM up to
+        // QUERY_TO are returned, in date order unless another is asked for.  Both are optional,
+        // and the bucket is a day if none is given.
+        public static final String QUERY_FROM = "from";
+        public static final String QUERY_TO = "to";
+        public static final String QUERY_BUCKET = "bucket";
+
+        public static final String BUCKET_DAY = "day";
+        public static final String BUCKET_WEEK = "week";
+        public static final String BUCKET_MONTH = "month";
+
+        public static Uri buildWeatherStats(String locationSetting, long fromDate, long toDate,
+                                            String bucket) {
+            return WeatherEntry.buildWeatherLocation(locationSetting).buildUpon()
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(QUERY_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(QUERY_TO, Long.toString(normalizeDate(toDate)))
+                    .appendQueryParameter(QUERY_BUCKET, bucket).build();
+        }
+
+        public static long getFromDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(QUERY_FROM);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the last date asked for, or Long.MAX_VALUE if there is no end
+         */
+        public static long getToDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(QUERY_TO);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+
+        public static String getBucketFromUri(Uri uri) {
+            String bucket = uri.getQueryParameter(QUERY_BUCKET);
+            return bucket != null ? bucket : BUCKET_DAY;
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +328,43 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // ContentResolver.call method that inserts a WeatherRowBatch in one transaction, for
+        // syncs and imports that write many rows.  The extras hold the batch under EXTRA_ROWS,
+        // optionally a batch of rows to update under EXTRA_UPDATE_ROWS, each matched by its
+        // location and date, and optionally the LocationEntry values of the rows' location under
+        // EXTRA_LOCATION.  The location is inserted, or refreshed if it is stored, before the
+        // rows, and every row takes its row ID.  The result holds EXTRA_INSERTED and
+        // EXTRA_UPDATED.  Inserted rows that already exist for their date and location are
+        // replaced.
+        public static final String METHOD_INSERT_ROWS = "insert_rows";
+        public static final String EXTRA_ROWS = "rows";
+        public static final String EXTRA_UPDATE_ROWS = "update_rows";
+        public static final String EXTRA_LOCATION = "location";
+        public static final String EXTRA_INSERTED = "inserted";
+        public static final String EXTRA_UPDATED = "updated";
+
+        // ContentResolver.call method that returns the counters of the provider's forecast
+        // cache: EXTRA_CACHE_HITS, EXTRA_CACHE_MISSES and EXTRA_CACHE_EVICTIONS, counted since
+        // the provider started.  Evictions only count results dropped to make room.
+        public static final String METHOD_GET_CACHE_STATS = "cache_stats";
+        public static final String EXTRA_CACHE_HITS = "cache_hits";
+        public static final String EXTRA_CACHE_MISSES = "cache_misses";
+        public static final String EXTRA_CACHE_EVICTIONS = "cache_evictions";
+
+        // ContentResolver.call method that returns today's forecast of the location setting
+        // given as the argument, for readers that only show today.  The result holds the
+        // COLUMN_DATE, COLUMN_WEATHER_ID, COLUMN_SHORT_DESC, COLUMN_MAX_TEMP and COLUMN_MIN_TEMP
+        // of the first forecast dated today or later, or is null if there is none.  It is kept
+        // in memory until the location is written to, so most calls don't read the database.
+        public static final String METHOD_GET_TODAY = "today";
+
+        // Query parameters of weather/* and weather/id/# that return one page of the forecast:
+        // at most QUERY_LIMIT rows dated after QUERY_AFTER, in date order.  The next page is
+        // asked for after the last date of this one, so each page is a range of the location
+        // and date index however much history is stored, where an offset would skip over rows.
+        public static final String QUERY_AFTER = "after";
+        public static final String QUERY_LIMIT = "limit";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +388,34 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        public static Uri buildWeatherLocationId(long locationId) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ID)
+                    .appendPath(Long.toString(locationId)).build();
+        }
+
+        public static Uri buildWeatherLocationIdWithStartDate(long locationId, long startDate) {
+            long normalizedDate = normalizeDate(startDate);
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
+        }
+
+        /**
+         * @param afterDate the last date of the previous page, or 0 for the first page
+         */
+        public static Uri buildWeatherLocationPage(String locationSetting, long startDate,
+                                                   long afterDate, int pageSize) {
+            Uri.Builder builder = buildWeatherLocationWithStartDate(locationSetting, startDate)
+                    .buildUpon();
+            if (afterDate != 0) {
+                builder.appendQueryParameter(QUERY_AFTER, Long.toString(afterDate));
+            }
+            return builder.appendQueryParameter(QUERY_LIMIT, Integer.toString(pageSize)).build();
+        }
+
+        public static long getLocationIdFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -164,5 +431,24 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(QUERY_AFTER);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the page size of a paged URI, or 0 if it isn't paged
+         */
+        public static int getPageSizeFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(QUERY_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return 0;
+        }
     }
 }
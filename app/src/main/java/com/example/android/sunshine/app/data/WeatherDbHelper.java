@@ -15,25 +15,169 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * From Honeycomb on the database uses write-ahead logging, so the loaders, widgets and Muzei can
+ * keep reading while a sync writes.  Since everything in it can be downloaded again, commits
+ * aren't synced to disk one by one: a power cut may lose the last sync, but can't corrupt the
+ * database.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, and add a
+    // migration for it to MIGRATIONS.
+    static final int DATABASE_VERSION = 7;
+
+    // Forecasts are read a location at a time from a date on, and the UNIQUE (date, location_id)
+    // index leads with the wrong column for that.  This one also carries every weather column the
+    // forecast list, the widgets and Muzei read, so those queries never touch the table itself.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + WEATHER_LOCATION_DATE_INDEX + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ")";
+
+    // The oldest version onUpgrade migrates in place.  Anything older is recreated empty.
+    static final int OLDEST_MIGRATED_VERSION = 2;
+
+    /**
+     * One schema change, which takes the database from the version before toVersion to
+     * toVersion.  It runs inside onUpgrade's transaction and must keep the data.
+     */
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Every schema change since OLDEST_MIGRATED_VERSION, in order.  onCreate must always build
+    // what these add up to.
+    static final Migration[] MIGRATIONS = {
+            // OpenWeatherMap city ids, for group requests
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_CITY_ID + " INTEGER");
+                }
+            },
+            // Index for reading a location's forecast
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+            // Rollups for stats, built from what is stored so far
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(WeatherRollup.SQL_CREATE_TABLE);
+                    WeatherRollup.rebuild(db);
+                }
+            },
+            // City search, with the stored locations.  The bundled cities are added on first use.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    CitySearch.createTable(db);
+                    CitySearch.indexLocations(db);
+                }
+            },
+            // Geohashes, for finding the stored locations near a point
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_GEOHASH + " TEXT");
+                    db.execSQL(GeoHash.SQL_CREATE_INDEX);
+                    GeoHash.indexLocations(db);
+                }
+            }
+    };
 
     static final String DATABASE_NAME = "weather.db";
 
+    // A sync writes a few pages, so checkpoint well before SQLite's default of 1000 pages to keep
+    // the log, which every reader has to look through, short.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 100;
+    // Truncate the log back to this size after a checkpoint, once a big import has grown it
+    private static final int JOURNAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
+    private final boolean mWriteAheadLogging;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    // Tests use this for a database of their own, or to compare with the rollback journal
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLogging(writeAheadLogging);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWriteAheadLogging(boolean enabled) {
+        // Also gives the database a pool of read connections next to the one that writes
+        setWriteAheadLoggingEnabled(enabled);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!mWriteAheadLogging || db.isReadOnly()
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging(db);
+        }
+        // These apply to the connection that writes, which is the one that matters for them.
+        // NORMAL only syncs at checkpoints, which in WAL mode still keeps the database intact.
+        pragma(db, "synchronous = NORMAL");
+        pragma(db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        pragma(db, "journal_size_limit = " + JOURNAL_SIZE_LIMIT_BYTES);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    // Some pragmas answer with a row, which execSQL refuses, so step through them as a query
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -45,7 +189,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+                LocationEntry.COLUMN_GEOHASH + " TEXT " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -81,18 +227,39 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(GeoHash.SQL_CREATE_INDEX);
+        sqLiteDatabase.execSQL(WeatherRollup.SQL_CREATE_TABLE);
+        CitySearch.createTable(sqLiteDatabase);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < OLDEST_MIGRATED_VERSION) {
+            // This database is only a cache for online data, so when there is no migration for
+            // it, the upgrade policy is to simply to discard the data and start over
+            Log.i(LOG_TAG, "No migration from version " + oldVersion + ", recreating");
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    /**
+     * Runs the migrations from fromVersion up to toVersion, in order, logging how long each one
+     * took.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= fromVersion || migration.toVersion > toVersion) {
+                continue;
+            }
+            long start = SystemClock.elapsedRealtime();
+            migration.migrate(db);
+            Log.i(LOG_TAG, "Migrated " + DATABASE_NAME + " to version " + migration.toVersion
+                    + " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
     }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Past forecasts, moved out of the weather table into one table per month, weather_history_yyyymm
+ * by the UTC month of the date.  The weather table then only holds today and the days after it,
+ * which is what the list, the widgets and the sync read.
+ *
+ * Past days are moved once a day, with one INSERT ... SELECT per month and one DELETE, rather
+ * than deleted by every sync.  A month is dropped as a whole once all of it is older than what
+ * is kept, which costs the same however many rows it holds, so history is kept for at least the
+ * days asked for and at most a month longer.
+ *
+ * The tables are created when the first day of their month is moved, so they aren't part of the
+ * schema in {@link WeatherDbHelper}.  Everything here runs inside the caller's transaction.
+ */
+class WeatherHistory {
+    static final String TABLE_PREFIX = "weather_history_";
+
+    // The columns moved, which are the weather table's without its _id
+    private static final String[] COLUMN_NAMES = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final String COLUMNS = join(COLUMN_NAMES);
+
+    private WeatherHistory() {
+    }
+
+    /**
+     * @return the name of the table for the month of the date
+     */
+    static String getTableName(long date) {
+        Time time = new Time(Time.TIMEZONE_UTC);
+        time.set(date);
+        return getTableName(time.year, time.month);
+    }
+
+    private static String getTableName(int year, int month) {
+        return String.format(Locale.US, "%s%04d%02d", TABLE_PREFIX, year, month + 1);
+    }
+
+    /**
+     * @return the first moment of the month after the one of the date, in UTC
+     */
+    static long getNextMonthStart(long date) {
+        Time time = new Time(Time.TIMEZONE_UTC);
+        time.set(date);
+        time.set(0, 0, 0, 1, time.month + 1, time.year);
+        return time.normalize(true);
+    }
+
+    /**
+     * @return the names of the history tables, oldest month first
+     */
+    static List<String> getTables(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'"
+                + " AND name LIKE ? ESCAPE '\\' ORDER BY name",
+                new String[] {TABLE_PREFIX.replace("_", "\\_") + "%"});
+        List<String> tables = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tables;
+    }
+
+    private static void createTable(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + table + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                // A location's history is read in date order, which this index gives
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+    }
+
+    /**
+     * Moves the rows of the weather table dated before the given day into the history, and
+     * deletes those that are too old to keep.
+     *
+     * @param before the first day that stays in the weather table
+     * @param keepFrom the first day to keep in the history
+     * @return the number of rows moved
+     */
+    static int archive(SQLiteDatabase db, long before, long keepFrom) {
+        long first = Long.MAX_VALUE;
+        Cursor cursor = db.rawQuery("SELECT MIN(" + WeatherEntry.COLUMN_DATE + ") FROM " +
+                        WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE + " >= ?" +
+                        " AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[] {Long.toString(keepFrom), Long.toString(before)});
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                first = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int moved = 0;
+        for (long monthStart = first; monthStart < before;
+                monthStart = getNextMonthStart(monthStart)) {
+            String table = getTableName(monthStart);
+            createTable(db, table);
+            long monthEnd = Math.min(getNextMonthStart(monthStart), before);
+            db.execSQL("INSERT INTO " + table + " (" + COLUMNS + ") SELECT " + COLUMNS +
+                            " FROM " + WeatherEntry.TABLE_NAME +
+                            " WHERE " + WeatherEntry.COLUMN_DATE + " >= ?" +
+                            " AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                    new Object[] {Math.max(monthStart, keepFrom), monthEnd});
+            moved += changes(db);
+        }
+        db.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[] {Long.toString(before)});
+        return moved;
+    }
+
+    /**
+     * Drops the months that end before the given day.
+     *
+     * @return the number of tables dropped
+     */
+    static int dropExpired(SQLiteDatabase db, long keepFrom) {
+        String keepTable = getTableName(keepFrom);
+        int dropped = 0;
+        for (String table : getTables(db)) {
+            // The names sort by month
+            if (table.compareTo(keepTable) < 0) {
+                db.execSQL("DROP TABLE " + table);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    static void dropAll(SQLiteDatabase db) {
+        for (String table : getTables(db)) {
+            db.execSQL("DROP TABLE " + table);
+        }
+    }
+
+    /**
+     * Reads the history of one location, or of all when locationId is -1, over every month.
+     *
+     * @param projection plain column names of the weather table
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, long locationId,
+                        String sortOrder) {
+        List<String> tables = getTables(db);
+        if (tables.isEmpty()) {
+            return new MatrixCursor(projection == null ? COLUMN_NAMES : projection);
+        }
+        String columns = projection == null ? COLUMNS : join(projection);
+        StringBuilder sql = new StringBuilder();
+        String[] args = locationId == -1 ? null : new String[tables.size()];
+        for (int i = 0; i < tables.size(); i++) {
+            if (i > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT ").append(columns).append(" FROM ").append(tables.get(i));
+            if (args != null) {
+                sql.append(" WHERE ").append(WeatherEntry.COLUMN_LOC_KEY).append(" = ?");
+                args[i] = Long.toString(locationId);
+            }
+        }
+        if (sortOrder != null) {
+            sql.append(" ORDER BY ").append(sortOrder);
+        }
+        return db.rawQuery(sql.toString(), args);
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+
+    private static int changes(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT changes()", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
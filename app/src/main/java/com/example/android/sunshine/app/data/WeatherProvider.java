@@ -17,25 +17,147 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Process;
+import android.text.format.Time;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // While applyBatch runs on a thread, the changes its operations made are collected here and
+    // published once the transaction has committed.
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<>();
+
+    // Rows of forecast results kept in memory, over all locations
+    private static final int CACHE_MAX_ROWS = 512;
+    private final ForecastCache mCache = new ForecastCache(CACHE_MAX_ROWS);
+    // The location ID of cache keys for URIs that give the location by its setting
+    private static final long NO_LOCATION_ID = -1;
+
+    // METHOD_GET_TODAY's answers
+    private final TodaySnapshot mToday = new TodaySnapshot();
+    private static final String[] TODAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // How long each call took and who made it, for dumpsys activity provider
+    private static final long SLOW_CALL_MILLIS = 50;
+    private static final int SLOW_CALL_CAPACITY = 64;
+    private final ProviderStats mStats = new ProviderStats(SLOW_CALL_MILLIS, SLOW_CALL_CAPACITY);
+    // Package names of the calling UIDs, which take a call to the package manager to look up
+    private final SparseArray<String> mCallerNames = new SparseArray<>();
+
+    // Whether the bundled cities are known to be in the city index
+    private volatile boolean mCitiesSeeded;
+
+    /**
+     * What a write changed.  Weather rows are recorded by location and date, so observers can be
+     * told about the forecasts that changed rather than about every forecast.
+     */
+    private static class PendingChanges {
+        // The changed dates of each location, by location row ID
+        final Map<Long, Set<Long>> dates = new HashMap<>();
+        // URIs to notify as they are, for changes that aren't to known weather rows
+        final Set<Uri> uris = new LinkedHashSet<>();
+        // Whether every cached result is stale
+        boolean anyLocation;
+        // Whether the location table changed
+        boolean locations;
+
+        void addDay(long locationId, long date) {
+            Set<Long> locationDates = dates.get(locationId);
+            if (locationDates == null) {
+                locationDates = new TreeSet<>();
+                dates.put(locationId, locationDates);
+            }
+            locationDates.add(date);
+        }
+
+        /**
+         * Records an inserted row from its values, which hold a normalized date.
+         */
+        void addRow(ContentValues values) {
+            Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                addAnyWeather();
+            } else {
+                addDay(locationId, date);
+            }
+        }
+
+        /**
+         * Records a change to weather rows that can't be told apart, which tells every
+         * weather observer.
+         */
+        void addAnyWeather() {
+            uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+            anyLocation = true;
+        }
+
+        void addAll(PendingChanges other) {
+            for (Map.Entry<Long, Set<Long>> entry : other.dates.entrySet()) {
+                for (long date : entry.getValue()) {
+                    addDay(entry.getKey(), date);
+                }
+            }
+            uris.addAll(other.uris);
+            anyLocation |= other.anyLocation;
+            locations |= other.locations;
+        }
+    }
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_ID = 103;
+    static final int WEATHER_STATS = 104;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAR = 301;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION_ID = 401;
+    static final int CITY_SEARCH = 500;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sStatsQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,15 +171,26 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //weather_rollup INNER JOIN location ON weather_rollup.location_id = location._id
+        sStatsQueryBuilder = new SQLiteQueryBuilder();
+        sStatsQueryBuilder.setTables(
+                WeatherContract.StatsEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.StatsEntry.TABLE_NAME +
+                        "." + WeatherContract.StatsEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+        sStatsQueryBuilder.setProjectionMap(WeatherRollup.buildProjectionMap());
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
@@ -68,6 +201,68 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //location_id = ? AND date >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    // AND date > ?, appended for the pages after the first
+    private static final String sAfterDateSelection =
+            "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    //location.location_setting = ? AND bucket = ? AND start >= ? AND start <= ?
+    private static final String sStatsSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherRollup.COLUMN_BUCKET + " = ? AND " +
+                    WeatherContract.StatsEntry.COLUMN_START + " >= ? AND " +
+                    WeatherContract.StatsEntry.COLUMN_START + " <= ? ";
+
+    private static final String sStartAscendingOrder =
+            WeatherContract.StatsEntry.COLUMN_START + " ASC";
+
+    private static final String sDateAscendingOrder =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    // The statement METHOD_INSERT_ROWS compiles once per batch and binds every row into.  The
+    // table replaces rows on a (date, location) conflict, so this is also an update.
+    private static final String sInsertWeatherStatement =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // The statement METHOD_INSERT_ROWS binds every row of EXTRA_UPDATE_ROWS into.  A changed day
+    // keeps its row, where a replace would delete it and insert it again under a new row ID.
+    private static final String sUpdateWeatherStatement =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ? WHERE " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    //date < ?
+    private static final String sDateBeforeSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " < ?";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -83,13 +278,25 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
+        int pageSize = WeatherContract.WeatherEntry.getPageSizeFromUri(uri);
+        if (pageSize > 0) {
+            long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+            if (afterDate != 0) {
+                selection += sAfterDateSelection;
+                selectionArgs = appendArg(selectionArgs, Long.toString(afterDate));
+            }
+            // Pages follow each other by date, whatever order was asked for
+            sortOrder = sDateAscendingOrder;
+        }
+
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 selection,
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                pageSize > 0 ? Integer.toString(pageSize) : null
         );
     }
 
@@ -108,6 +315,73 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getWeatherByLocationId(Uri uri, String[] projection, String sortOrder) {
+        String locationId =
+                Long.toString(WeatherContract.WeatherEntry.getLocationIdFromUri(uri));
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startDate == 0) {
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{locationId};
+        } else {
+            selection = sLocationIdWithStartDateSelection;
+            selectionArgs = new String[]{locationId, Long.toString(startDate)};
+        }
+
+        int pageSize = WeatherContract.WeatherEntry.getPageSizeFromUri(uri);
+        if (pageSize > 0) {
+            long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+            if (afterDate != 0) {
+                selection += sAfterDateSelection;
+                selectionArgs = appendArg(selectionArgs, Long.toString(afterDate));
+            }
+            sortOrder = sDateAscendingOrder;
+        }
+
+        // Only the weather table is read, so the weather_location_date index can answer this
+        // without the join
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                pageSize > 0 ? Integer.toString(pageSize) : null
+        );
+    }
+
+    private Cursor getWeatherStats(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        int bucket = WeatherRollup.getBucket(WeatherContract.StatsEntry.getBucketFromUri(uri));
+        long fromDate = WeatherContract.StatsEntry.getFromDateFromUri(uri);
+        if (fromDate != 0) {
+            // The bucket that holds the first day asked for is part of the answer
+            fromDate = WeatherRollup.getBucketStart(bucket, fromDate, new Time());
+        }
+        long toDate = WeatherContract.StatsEntry.getToDateFromUri(uri);
+
+        return sStatsQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sStatsSelection,
+                new String[]{locationSetting, Integer.toString(bucket), Long.toString(fromDate),
+                        Long.toString(toDate)},
+                null,
+                null,
+                sortOrder != null ? sortOrder : sStartAscendingOrder
+        );
+    }
+
+    private static String[] appendArg(String[] selectionArgs, String arg) {
+        String[] args = new String[selectionArgs.length + 1];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        args[selectionArgs.length] = arg;
+        return args;
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -126,10 +400,22 @@ public class WeatherProvider extends ContentProvider {
 
         // For each type of URI you want to add, create a corresponding code.
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
+        // This has to come before weather/*, since the matcher takes the first pattern that fits
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.PATH_LOCATION_ID + "/#", WEATHER_WITH_LOCATION_ID);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_STATS, WEATHER_STATS);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_NEAR, LOCATION_NEAR);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/#", HISTORY_WITH_LOCATION_ID);
+
+        matcher.addURI(authority, WeatherContract.PATH_CITY + "/*", CITY_SEARCH);
         return matcher;
     }
 
@@ -160,10 +446,20 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_ID:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.StatsEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_NEAR:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION_ID:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case CITY_SEARCH:
+                return WeatherContract.CityEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,21 +468,68 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        int rows = -1;
+        try {
+            Cursor cursor = doQuery(uri, projection, selection, selectionArgs, sortOrder);
+            // Only a cached result knows its count already.  Asking any other cursor would run
+            // the query here, in the caller's thread and before the caller wanted the rows.
+            if (cursor instanceof SnapshotCursor) {
+                rows = cursor.getCount();
+            }
+            return cursor;
+        } finally {
+            record("query", sUriMatcher.match(uri), uri, rows, start);
+        }
+    }
+
+    private Cursor doQuery(Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+
+        // Forecasts are served from memory when the same query was answered since the last
+        // change to its location
+        ForecastCache.Key cacheKey = getCacheKey(match, uri, projection, sortOrder);
+        long cacheGeneration = 0;
+        if (cacheKey != null) {
+            Cursor cached = mCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), uri);
+                return cached;
+            }
+            cacheGeneration = mCache.getGeneration();
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        Uri notificationUri = uri;
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
                 retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
                 break;
             }
+            // "weather/id/#"
+            case WEATHER_WITH_LOCATION_ID: {
+                retCursor = getWeatherByLocationId(uri, projection, sortOrder);
+                break;
+            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
                 break;
             }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getWeatherStats(uri, projection, sortOrder);
+                // A write to one day is notified as weather/[setting]/[date], which isn't an
+                // ancestor of this URI
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            }
             // "weather"
             case WEATHER: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,19 +556,96 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/near"
+            case LOCATION_NEAR: {
+                retCursor = GeoHash.query(mOpenHelper.getReadableDatabase(), projection,
+                        WeatherContract.LocationEntry.getLatitudeFromUri(uri),
+                        WeatherContract.LocationEntry.getLongitudeFromUri(uri),
+                        WeatherContract.LocationEntry.getRadiusFromUri(uri));
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = WeatherHistory.query(mOpenHelper.getReadableDatabase(),
+                        projection, -1, sortOrder);
+                break;
+            }
+            // "history/#"
+            case HISTORY_WITH_LOCATION_ID: {
+                retCursor = WeatherHistory.query(mOpenHelper.getReadableDatabase(),
+                        projection, WeatherContract.HistoryEntry.getLocationIdFromUri(uri),
+                        sortOrder);
+                break;
+            }
+            // "city/*"
+            case CITY_SEARCH: {
+                seedCities();
+                retCursor = CitySearch.query(mOpenHelper.getReadableDatabase(), projection,
+                        WeatherContract.CityEntry.getTypedFromUri(uri),
+                        WeatherContract.CityEntry.getLimitFromUri(uri));
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        if (cacheKey != null) {
+            retCursor = mCache.put(cacheKey, cacheGeneration, retCursor);
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
+    /**
+     * @return the key a forecast query is cached under, or null if it isn't cached
+     */
+    private static ForecastCache.Key getCacheKey(int match, Uri uri, String[] projection,
+                                                 String sortOrder) {
+        if (!ForecastCache.isSupported()) {
+            return null;
+        }
+        // The selection is ignored for these, so it isn't part of the key
+        switch (match) {
+            case WEATHER_WITH_LOCATION:
+                return new ForecastCache.Key(match,
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri), NO_LOCATION_ID,
+                        WeatherContract.WeatherEntry.getStartDateFromUri(uri),
+                        projection, sortOrder,
+                        WeatherContract.WeatherEntry.getAfterDateFromUri(uri),
+                        WeatherContract.WeatherEntry.getPageSizeFromUri(uri));
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return new ForecastCache.Key(match,
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri), NO_LOCATION_ID,
+                        WeatherContract.WeatherEntry.getDateFromUri(uri),
+                        projection, sortOrder);
+            case WEATHER_WITH_LOCATION_ID:
+                return new ForecastCache.Key(match, null,
+                        WeatherContract.WeatherEntry.getLocationIdFromUri(uri),
+                        WeatherContract.WeatherEntry.getStartDateFromUri(uri),
+                        projection, sortOrder,
+                        WeatherContract.WeatherEntry.getAfterDateFromUri(uri),
+                        WeatherContract.WeatherEntry.getPageSizeFromUri(uri));
+            default:
+                return null;
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        long start = System.nanoTime();
+        Uri returnUri = null;
+        try {
+            returnUri = doInsert(uri, values);
+            return returnUri;
+        } finally {
+            record("insert", sUriMatcher.match(uri), uri, returnUri != null ? 1 : 0, start);
+        }
+    }
+
+    private Uri doInsert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
@@ -233,50 +653,257 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                PendingChanges changes = new PendingChanges();
+                db.beginTransaction();
+                try {
+                    long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    changes.addRow(values);
+                    updateRollups(db, changes);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyChanges(changes);
+                return returnUri;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                // A location that is already stored keeps its row, and the values that differ
+                // from the stored ones are updated.  This keeps the city id and coordinates of
+                // rows stored before they were known up to date.  If nothing changed, nobody is
+                // told.
+                PendingChanges changes = new PendingChanges();
+                long _id = storeLocation(db, values, changes);
+                notifyChanges(changes);
+                return WeatherContract.LocationEntry.buildLocationUri(_id);
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
-        return returnUri;
+    }
+
+    /**
+     * Inserts the location, or refreshes it if it is already stored, and records the change.
+     *
+     * @return the location's row ID
+     */
+    private static long storeLocation(SQLiteDatabase db, ContentValues values,
+                                      PendingChanges changes) {
+        long _id = findLocation(db, values);
+        if (_id != -1) {
+            if (refreshLocation(db, _id, values)) {
+                addLocationChange(changes);
+            }
+            return _id;
+        }
+        db.beginTransaction();
+        try {
+            _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+            if (_id <= 0) {
+                throw new android.database.SQLException("Failed to insert row into "
+                        + WeatherContract.LocationEntry.CONTENT_URI);
+            }
+            GeoHash.indexLocations(db);
+            CitySearch.indexLocations(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        addLocationChange(changes);
+        return _id;
+    }
+
+    private static void addLocationChange(PendingChanges changes) {
+        changes.uris.add(WeatherContract.LocationEntry.CONTENT_URI);
+        changes.anyLocation = true;
+        changes.locations = true;
+    }
+
+    // The location columns the sync refreshes when it inserts a stored location again
+    private static final String[] REFRESHED_LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_CITY_ID
+    };
+
+    /**
+     * Updates the stored location with the city name, coordinates and city id of the values
+     * where they are missing or different.  The location's geohash is computed again if it moved.
+     *
+     * @return true if the row changed
+     */
+    private static boolean refreshLocation(SQLiteDatabase db, long locationId,
+                                           ContentValues values) {
+        String[] idArgs = new String[] {Long.toString(locationId)};
+        db.beginTransaction();
+        try {
+            Set<String> changedColumns = new HashSet<>();
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    REFRESHED_LOCATION_COLUMNS, WeatherContract.LocationEntry._ID + " = ?",
+                    idArgs, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                for (int i = 0; i < REFRESHED_LOCATION_COLUMNS.length; i++) {
+                    String column = REFRESHED_LOCATION_COLUMNS[i];
+                    Object value = values.get(column);
+                    // A value that isn't given, or is null, doesn't clear what is stored
+                    if (value != null && (cursor.isNull(i) || !isSameValue(cursor, i, value))) {
+                        changedColumns.add(column);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if (changedColumns.isEmpty()) {
+                return false;
+            }
+            ContentValues changed = new ContentValues(values);
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                if (!changedColumns.contains(entry.getKey())) {
+                    changed.remove(entry.getKey());
+                }
+            }
+            boolean moved =
+                    changed.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                    || changed.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+            if (moved) {
+                changed.putNull(WeatherContract.LocationEntry.COLUMN_GEOHASH);
+            }
+            db.update(WeatherContract.LocationEntry.TABLE_NAME, changed,
+                    WeatherContract.LocationEntry._ID + " = ?", idArgs);
+            if (moved) {
+                GeoHash.indexLocations(db);
+            }
+            if (changed.containsKey(WeatherContract.LocationEntry.COLUMN_CITY_NAME)) {
+                CitySearch.indexLocations(db);
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static boolean isSameValue(Cursor cursor, int column, Object value) {
+        if (value instanceof Number) {
+            return cursor.getDouble(column) == ((Number) value).doubleValue();
+        }
+        return value.toString().equals(cursor.getString(column));
+    }
+
+    /**
+     * @return the row ID of the stored location with the setting in the values, or -1
+     */
+    private static long findLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting == null) {
+            return -1;
+        }
+        return findLocationId(db, locationSetting);
+    }
+
+    /**
+     * @return the row ID of the stored location with the setting, or -1
+     */
+    private static long findLocationId(SQLiteDatabase db, String locationSetting) {
+        long locationId = LocationIdCache.getId(locationSetting);
+        if (locationId != -1) {
+            return locationId;
+        }
+        long generation = LocationIdCache.getGeneration();
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[] {WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {locationSetting},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            locationId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        LocationIdCache.put(locationSetting, locationId, generation);
+        return locationId;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsDeleted = 0;
+        try {
+            rowsDeleted = doDelete(uri, selection, selectionArgs);
+            return rowsDeleted;
+        } finally {
+            record("delete", sUriMatcher.match(uri), uri, rowsDeleted, start);
+        }
+    }
+
+    private int doDelete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+            case WEATHER: {
+                PendingChanges changes = new PendingChanges();
+                // The rows are read in the delete's transaction, so a sync that commits in
+                // between can't change which of them are gone
+                db.beginTransaction();
+                try {
+                    addRows(db, selection, selectionArgs, changes);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    notifyChanges(changes);
+                }
+                return rowsDeleted;
+            }
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // Later lookups in the same transaction mustn't find the deleted rows
+                LocationIdCache.invalidate();
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    // Rollups outlive the weather rows, but not their location
+                    WeatherRollup.deleteOrphans(db);
+                    CitySearch.indexLocations(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                break;
+            case HISTORY:
+                // Every month is dropped, however many rows it has
+                db.beginTransaction();
+                try {
+                    rowsDeleted = WeatherHistory.getTables(db).size();
+                    WeatherHistory.dropAll(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -292,56 +919,623 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsUpdated = 0;
+        try {
+            rowsUpdated = doUpdate(uri, values, selection, selectionArgs);
+            return rowsUpdated;
+        } finally {
+            record("update", sUriMatcher.match(uri), uri, rowsUpdated, start);
+        }
+    }
+
+    private int doUpdate(
+            Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                PendingChanges changes = new PendingChanges();
+                db.beginTransaction();
+                try {
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                            || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                        // The rows move to another location or date
+                        changes.addAnyWeather();
+                    } else {
+                        addRows(db, selection, selectionArgs, changes);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    updateRollups(db, changes);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsUpdated != 0) {
+                    notifyChanges(changes);
+                }
+                return rowsUpdated;
+            }
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // The update may change settings, and later lookups in the same transaction
+                // mustn't find the old ones
+                LocationIdCache.invalidate();
+                if (values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                        || values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LONG)) {
+                    // The locations moved, so their geohashes are computed again.  The values
+                    // are the caller's, so the copy is changed instead.
+                    values = new ContentValues(values);
+                    values.putNull(WeatherContract.LocationEntry.COLUMN_GEOHASH);
+                }
+                db.beginTransaction();
+                try {
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    GeoHash.indexLocations(db);
+                    CitySearch.indexLocations(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = System.nanoTime();
+        int returnCount = 0;
+        try {
+            returnCount = doBulkInsert(uri, values);
+            return returnCount;
+        } finally {
+            record("bulkInsert", sUriMatcher.match(uri), uri, returnCount, start);
+        }
+    }
+
+    private int doBulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                PendingChanges changes = new PendingChanges();
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            changes.addRow(value);
                         }
                     }
+                    updateRollups(db, changes);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChanges(changes);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the operations in a single transaction, so a sync that inserts, updates and deletes
+     * weather rows touches the disk once.  The changes of all operations are merged and published
+     * once, after the transaction commits, and not at all if nothing changed.  Cached results of
+     * the changed locations are dropped at the same point, and the rollups of the changed days
+     * are brought up to date once, just before the commit.  Each operation is also recorded
+     * on its own.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = System.nanoTime();
+        try {
+            return doApplyBatch(operations);
+        } finally {
+            record("applyBatch", -1, null, operations.size(), start);
+        }
+    }
+
+    private ContentProviderResult[] doApplyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        PendingChanges pending = new PendingChanges();
+        ContentProviderResult[] results;
+        boolean successful = false;
+        mPendingChanges.set(pending);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            WeatherRollup.update(db, pending.dates);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            mPendingChanges.remove();
+            if (!successful) {
+                // Row IDs read inside the transaction may be of locations that were rolled back
+                LocationIdCache.invalidate();
+            }
+        }
+        publishChanges(pending);
+        return results;
+    }
+
+    /**
+     * Handles {@link WeatherContract.WeatherEntry#METHOD_INSERT_ROWS}.  This is the fast path for
+     * many weather rows: bulkInsert builds the INSERT again for every ContentValues, while here
+     * the rows are bound into one compiled statement, inside one transaction, with one
+     * notification per changed location.  The sync sends its location along, so that a forecast
+     * is stored with one call.  Also handles {@link WeatherContract.WeatherEntry#METHOD_GET_CACHE_STATS}
+     * and {@link WeatherContract.HistoryEntry#METHOD_COMPACT}.  {@link WeatherContract.WeatherEntry#METHOD_GET_TODAY}
+     * is answered from memory when it can be.
+     */
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        try {
+            return doCall(method, arg, extras);
+        } finally {
+            record(getCallOperation(method), -1, null, 0, start);
+        }
+    }
+
+    // The call methods the stats record by name
+    private static final Set<String> RECORDED_CALL_METHODS = new HashSet<>(Arrays.asList(
+            WeatherContract.HistoryEntry.METHOD_COMPACT,
+            WeatherContract.WeatherEntry.METHOD_GET_TODAY,
+            WeatherContract.WeatherEntry.METHOD_GET_CACHE_STATS,
+            WeatherContract.WeatherEntry.METHOD_INSERT_ROWS));
+
+    /**
+     * @return the name the call is recorded under.  Methods the provider doesn't handle share one,
+     * so a caller can't add a histogram for every name it makes up.
+     */
+    private static String getCallOperation(String method) {
+        return RECORDED_CALL_METHODS.contains(method) ? method : "call";
+    }
+
+    @TargetApi(11)
+    private Bundle doCall(String method, String arg, Bundle extras) {
+        if (WeatherContract.HistoryEntry.METHOD_COMPACT.equals(method)) {
+            return compactHistory(extras);
+        }
+        if (WeatherContract.WeatherEntry.METHOD_GET_TODAY.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("No location for " + method);
+            }
+            return getToday(arg);
+        }
+        if (WeatherContract.WeatherEntry.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_CACHE_HITS, mCache.hitCount());
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_CACHE_MISSES, mCache.missCount());
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_CACHE_EVICTIONS,
+                    mCache.evictionCount());
+            return result;
+        }
+        if (!WeatherContract.WeatherEntry.METHOD_INSERT_ROWS.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if (extras == null) {
+            throw new IllegalArgumentException("No rows for " + method);
+        }
+        // The batch may have been unparcelled in this process with the framework's class loader
+        extras.setClassLoader(WeatherRowBatch.class.getClassLoader());
+        WeatherRowBatch rows = extras.getParcelable(WeatherContract.WeatherEntry.EXTRA_ROWS);
+        WeatherRowBatch updateRows =
+                extras.getParcelable(WeatherContract.WeatherEntry.EXTRA_UPDATE_ROWS);
+        ContentValues location = extras.getParcelable(WeatherContract.WeatherEntry.EXTRA_LOCATION);
+        if (rows == null && updateRows == null) {
+            throw new IllegalArgumentException("No rows for " + method);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int inserted = 0;
+        int updated = 0;
+        PendingChanges changes = new PendingChanges();
+        db.beginTransaction();
+        try {
+            // The rows belong to the location, whatever row ID they were built with.  In this
+            // process the batches are the caller's own, so the ID is bound, not written into them.
+            long locationId = location != null ? storeLocation(db, location, changes) : -1;
+            if (rows != null) {
+                inserted = insertRows(db, rows, locationId, changes);
+            }
+            if (updateRows != null) {
+                updated = updateRows(db, updateRows, locationId, changes);
+            }
+            updateRollups(db, changes);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyChanges(changes);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_INSERTED, inserted);
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_UPDATED, updated);
+        return result;
+    }
+
+    /**
+     * Handles {@link WeatherContract.HistoryEntry#METHOD_COMPACT} in one transaction.  The
+     * locations whose past days left the weather table are notified like any other change, once
+     * a day.
+     */
+    private Bundle compactHistory(Bundle extras) {
+        if (extras == null || !extras.containsKey(WeatherContract.HistoryEntry.EXTRA_TODAY)) {
+            throw new IllegalArgumentException("No date for "
+                    + WeatherContract.HistoryEntry.METHOD_COMPACT);
+        }
+        long today = extras.getLong(WeatherContract.HistoryEntry.EXTRA_TODAY);
+        long keepFrom = today
+                - extras.getInt(WeatherContract.HistoryEntry.EXTRA_KEEP_DAYS) * DAY_IN_MILLIS;
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int archived;
+        int dropped;
+        PendingChanges changes = new PendingChanges();
+        db.beginTransaction();
+        try {
+            addRows(db, sDateBeforeSelection, new String[] {Long.toString(today)}, changes);
+            archived = WeatherHistory.archive(db, today, keepFrom);
+            dropped = WeatherHistory.dropExpired(db, keepFrom);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (archived > 0 || dropped > 0) {
+            changes.uris.add(WeatherContract.HistoryEntry.CONTENT_URI);
+        }
+        notifyChanges(changes);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.HistoryEntry.EXTRA_ARCHIVED, archived);
+        result.putInt(WeatherContract.HistoryEntry.EXTRA_DROPPED_MONTHS, dropped);
+        return result;
+    }
+
+    /**
+     * Handles {@link WeatherContract.WeatherEntry#METHOD_GET_TODAY}.  A miss reads one row of the
+     * weather table by the location and date index, without the join on the setting.
+     */
+    private Bundle getToday(String locationSetting) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Bundle values = mToday.get(locationSetting, today);
+        if (values != null) {
+            return values.isEmpty() ? null : values;
+        }
+        long generation = mToday.getGeneration();
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = findLocationId(db, locationSetting);
+        if (locationId == -1) {
+            return null;
+        }
+        values = new Bundle();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                TODAY_COLUMNS,
+                sLocationIdWithStartDateSelection,
+                new String[] {Long.toString(locationId), Long.toString(today)},
+                null,
+                null,
+                sDateAscendingOrder,
+                "1");
+        try {
+            if (cursor.moveToFirst()) {
+                values.putLong(WeatherContract.WeatherEntry.COLUMN_DATE, cursor.getLong(0));
+                values.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(1));
+                values.putString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                        cursor.getString(2));
+                values.putDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(3));
+                values.putDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        mToday.put(locationSetting, today, generation, values);
+        return values.isEmpty() ? null : values;
+    }
+
+    /**
+     * @param locationId the location of every row, or -1 for the location each row holds
+     */
+    private int insertRows(SQLiteDatabase db, WeatherRowBatch rows, long locationId,
+                           PendingChanges changes) {
+        SQLiteStatement statement = db.compileStatement(sInsertWeatherStatement);
+        Time time = new Time();
+        int returnCount = 0;
+        try {
+            for (int i = 0; i < rows.size; i++) {
+                long rowLocationId = locationId != -1 ? locationId : rows.locationId[i];
+                long date = WeatherContract.normalizeDate(rows.date[i], time);
+                // Every column is bound for every row, so nothing is left over from the last one
+                statement.bindLong(1, rowLocationId);
+                statement.bindLong(2, date);
+                statement.bindLong(3, rows.weatherId[i]);
+                if (rows.shortDesc[i] == null) {
+                    statement.bindNull(4);
+                } else {
+                    statement.bindString(4, rows.shortDesc[i]);
+                }
+                statement.bindDouble(5, rows.min[i]);
+                statement.bindDouble(6, rows.max[i]);
+                statement.bindDouble(7, rows.humidity[i]);
+                statement.bindDouble(8, rows.pressure[i]);
+                statement.bindDouble(9, rows.wind[i]);
+                statement.bindDouble(10, rows.degrees[i]);
+                if (statement.executeInsert() != -1) {
+                    returnCount++;
+                    changes.addDay(rowLocationId, date);
+                }
+            }
+        } finally {
+            statement.close();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Updates each row stored for the location and date of a row of the batch.  Rows that
+     * aren't stored are left out, not inserted.
+     *
+     * @param locationId the location of every row, or -1 for the location each row holds
+     */
+    @TargetApi(11)
+    private int updateRows(SQLiteDatabase db, WeatherRowBatch rows, long locationId,
+                           PendingChanges changes) {
+        SQLiteStatement statement = db.compileStatement(sUpdateWeatherStatement);
+        Time time = new Time();
+        int returnCount = 0;
+        try {
+            for (int i = 0; i < rows.size; i++) {
+                long rowLocationId = locationId != -1 ? locationId : rows.locationId[i];
+                long date = WeatherContract.normalizeDate(rows.date[i], time);
+                statement.bindLong(1, rows.weatherId[i]);
+                if (rows.shortDesc[i] == null) {
+                    statement.bindNull(2);
+                } else {
+                    statement.bindString(2, rows.shortDesc[i]);
+                }
+                statement.bindDouble(3, rows.min[i]);
+                statement.bindDouble(4, rows.max[i]);
+                statement.bindDouble(5, rows.humidity[i]);
+                statement.bindDouble(6, rows.pressure[i]);
+                statement.bindDouble(7, rows.wind[i]);
+                statement.bindDouble(8, rows.degrees[i]);
+                statement.bindLong(9, rowLocationId);
+                statement.bindLong(10, date);
+                if (statement.executeUpdateDelete() > 0) {
+                    returnCount++;
+                    changes.addDay(rowLocationId, date);
+                }
+            }
+        } finally {
+            statement.close();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Indexes the bundled city list the first time cities are searched, rather than when the
+     * database is created, so that only those who search wait for it.
+     */
+    private void seedCities() {
+        if (mCitiesSeeded) {
+            return;
+        }
+        synchronized (this) {
+            if (mCitiesSeeded) {
+                return;
+            }
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            if (!CitySearch.isSeeded(db)) {
+                InputStream cities = getContext().getResources().openRawResource(R.raw.cities);
+                db.beginTransaction();
+                try {
+                    int count = CitySearch.seed(db, cities);
+                    db.setTransactionSuccessful();
+                    Log.d(LOG_TAG, "Indexed " + count + " cities");
+                } catch (IOException e) {
+                    // Searches find the stored locations only, and the next one tries again
+                    Log.e(LOG_TAG, "Error reading the city list", e);
+                    return;
+                } finally {
+                    db.endTransaction();
+                    try {
+                        cities.close();
+                    } catch (IOException e) {
+                        // Nothing more to read
+                    }
+                }
+            }
+            mCitiesSeeded = true;
+        }
+    }
+
+    /**
+     * Brings the rollups of the changed days up to date, inside the transaction that changed
+     * them.  Inside applyBatch this is done once for all operations, before the commit.
+     */
+    private void updateRollups(SQLiteDatabase db, PendingChanges changes) {
+        if (mPendingChanges.get() == null) {
+            WeatherRollup.update(db, changes.dates);
+        }
+    }
+
+    /**
+     * Records the weather rows a selection matches, before they are updated or deleted.  Call it
+     * inside the transaction of the write, so the rows it reads are the ones written.
+     */
+    private static void addRows(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                PendingChanges changes) {
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[] {WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.addDay(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * For changes to the location table.  Its columns are joined into forecast results, so every
+     * cached result is stale, but weather observers aren't told.
+     */
+    private void notifyChange(Uri uri) {
+        PendingChanges changes = new PendingChanges();
+        changes.uris.add(uri);
+        changes.anyLocation = true;
+        changes.locations = true;
+        notifyChanges(changes);
+    }
+
+    /**
+     * Publishes committed changes.  Inside applyBatch they are held until the transaction
+     * commits.
+     */
+    private void notifyChanges(PendingChanges changes) {
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.addAll(changes);
+        } else {
+            publishChanges(changes);
+        }
+    }
+
+    /**
+     * Drops the cached results the changes made stale, then tells the observers, so that a
+     * requery never sees the old rows.
+     *
+     * A location with one changed day is notified as weather/[setting]/[date], which wakes the
+     * detail pane of that day and the location's list but no other day.  A location with more is
+     * notified once as weather/[setting], since notifying every day would wake the list once per
+     * day.  weather/id/[id] is notified as well for observers of that form.  Observers of other
+     * locations aren't woken at all.
+     */
+    private void publishChanges(PendingChanges changes) {
+        if (changes.locations) {
+            // Again, now that the change is committed, so that a row ID read by another thread
+            // before the commit isn't cached
+            LocationIdCache.invalidate();
+        }
+        Set<Uri> uris = new LinkedHashSet<>();
+        boolean anyLocation = changes.anyLocation;
+        for (Map.Entry<Long, Set<Long>> entry : changes.dates.entrySet()) {
+            long locationId = entry.getKey();
+            String locationSetting = getLocationSetting(locationId);
+            if (locationSetting == null) {
+                // The location is gone as well, so its observers can't be named
+                uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                anyLocation = true;
+                continue;
+            }
+            if (!anyLocation) {
+                mCache.invalidateLocation(locationSetting, locationId);
+                mToday.invalidateLocation(locationSetting);
+            }
+            Set<Long> dates = entry.getValue();
+            uris.add(dates.size() == 1
+                    ? WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                            locationSetting, dates.iterator().next())
+                    : WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+            uris.add(WeatherContract.WeatherEntry.buildWeatherLocationId(locationId));
+        }
+        if (anyLocation) {
+            mCache.invalidateAll();
+            mToday.invalidateAll();
+        }
+        uris.addAll(changes.uris);
+        for (Uri uri : uris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @return the setting of the location with the given row ID, or null if there is none
+     */
+    private String getLocationSetting(long locationId) {
+        String locationSetting = LocationIdCache.getSetting(locationId);
+        if (locationSetting != null) {
+            return locationSetting;
+        }
+        long generation = LocationIdCache.getGeneration();
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[] {WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[] {Long.toString(locationId)},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            locationSetting = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+        LocationIdCache.put(locationSetting, locationId, generation);
+        return locationSetting;
+    }
+
+    private void record(String operation, int match, Uri uri, int rows, long startNanos) {
+        mStats.record(operation, match, uri, rows, System.nanoTime() - startNanos, getCaller());
+    }
+
+    /**
+     * @return the package of another app that called, or the calling thread of this one, whose
+     * names tell the sync, the loaders, the widgets and Muzei apart
+     */
+    private String getCaller() {
+        int uid = Binder.getCallingUid();
+        if (uid == Process.myUid()) {
+            return Thread.currentThread().getName();
+        }
+        synchronized (mCallerNames) {
+            String name = mCallerNames.get(uid);
+            if (name == null) {
+                name = getContext().getPackageManager().getNameForUid(uid);
+                if (name == null) {
+                    name = "uid " + uid;
+                }
+                mCallerNames.put(uid, name);
+            }
+            return name;
+        }
+    }
+
+    /**
+     * Prints how long the calls took, by operation and URI type, the slowest recent calls, and
+     * the forecast cache's counts.
+     */
+    @Override
+    @TargetApi(18)
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mStats.dump(writer);
+        writer.println("Forecast cache: " + mCache.hitCount() + " hits, " + mCache.missCount()
+                + " misses, " + mCache.evictionCount() + " evictions");
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Temperature, humidity and pressure of each location summed up by day, week and month, so that
+ * trends over a year read a few dozen rows rather than every day of the weather and history
+ * tables.
+ *
+ * Every bucket keeps minimums, maximums and sums, and the number of days it holds, so averages are
+ * the sums over the days and a bucket can be computed again from the buckets below it.  A write
+ * brings the days it touched up to date from the weather table, then recomputes the weeks and
+ * months around those days from the daily rows.  Days whose forecast is deleted or moved into the
+ * history keep their rollups, which are only deleted with their location.  Updates that move rows
+ * to another date or location aren't followed.
+ *
+ * Weeks start on Monday.  Bucket starts are normalized dates, like those of the weather table.
+ * Everything here runs inside the caller's transaction.
+ */
+class WeatherRollup {
+    static final int BUCKET_DAY = 0;
+    static final int BUCKET_WEEK = 1;
+    static final int BUCKET_MONTH = 2;
+
+    // Stored, but not part of the contract: averages are read as these over the days
+    static final String COLUMN_BUCKET = "bucket";
+    static final String COLUMN_SUM_MIN_TEMP = "sum_min";
+    static final String COLUMN_SUM_MAX_TEMP = "sum_max";
+    static final String COLUMN_SUM_HUMIDITY = "sum_humidity";
+    static final String COLUMN_SUM_PRESSURE = "sum_pressure";
+
+    private static final String COLUMNS =
+            StatsEntry.COLUMN_LOC_KEY + ", " +
+            COLUMN_BUCKET + ", " +
+            StatsEntry.COLUMN_START + ", " +
+            StatsEntry.COLUMN_DAYS + ", " +
+            StatsEntry.COLUMN_MIN_TEMP + ", " +
+            StatsEntry.COLUMN_MAX_TEMP + ", " +
+            COLUMN_SUM_MIN_TEMP + ", " +
+            COLUMN_SUM_MAX_TEMP + ", " +
+            StatsEntry.COLUMN_MIN_HUMIDITY + ", " +
+            StatsEntry.COLUMN_MAX_HUMIDITY + ", " +
+            COLUMN_SUM_HUMIDITY + ", " +
+            StatsEntry.COLUMN_MIN_PRESSURE + ", " +
+            StatsEntry.COLUMN_MAX_PRESSURE + ", " +
+            COLUMN_SUM_PRESSURE;
+
+    // A day of the weather table, or of a history table, as a daily bucket
+    private static final String SELECT_DAYS = "SELECT " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            BUCKET_DAY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            "1, " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_PRESSURE + " FROM ";
+
+    // The daily buckets of a location in a range, added up into one bucket that starts at the
+    // first bound
+    private static final String INSERT_BUCKET = "INSERT INTO " + StatsEntry.TABLE_NAME +
+            " (" + COLUMNS + ") SELECT " +
+            StatsEntry.COLUMN_LOC_KEY + ", ?, ?, " +
+            "SUM(" + StatsEntry.COLUMN_DAYS + "), " +
+            "MIN(" + StatsEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + StatsEntry.COLUMN_MAX_TEMP + "), " +
+            "SUM(" + COLUMN_SUM_MIN_TEMP + "), " +
+            "SUM(" + COLUMN_SUM_MAX_TEMP + "), " +
+            "MIN(" + StatsEntry.COLUMN_MIN_HUMIDITY + "), " +
+            "MAX(" + StatsEntry.COLUMN_MAX_HUMIDITY + "), " +
+            "SUM(" + COLUMN_SUM_HUMIDITY + "), " +
+            "MIN(" + StatsEntry.COLUMN_MIN_PRESSURE + "), " +
+            "MAX(" + StatsEntry.COLUMN_MAX_PRESSURE + "), " +
+            "SUM(" + COLUMN_SUM_PRESSURE + ")" +
+            " FROM " + StatsEntry.TABLE_NAME +
+            " WHERE " + StatsEntry.COLUMN_LOC_KEY + " = ?" +
+            " AND " + COLUMN_BUCKET + " = " + BUCKET_DAY +
+            " AND " + StatsEntry.COLUMN_START + " >= ?" +
+            " AND " + StatsEntry.COLUMN_START + " < ?" +
+            " GROUP BY " + StatsEntry.COLUMN_LOC_KEY;
+
+    static final String SQL_CREATE_TABLE = "CREATE TABLE " + StatsEntry.TABLE_NAME + " (" +
+            StatsEntry._ID + " INTEGER PRIMARY KEY, " +
+            StatsEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            COLUMN_BUCKET + " INTEGER NOT NULL, " +
+            StatsEntry.COLUMN_START + " INTEGER NOT NULL, " +
+            StatsEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            StatsEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            StatsEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            COLUMN_SUM_MIN_TEMP + " REAL NOT NULL, " +
+            COLUMN_SUM_MAX_TEMP + " REAL NOT NULL, " +
+            StatsEntry.COLUMN_MIN_HUMIDITY + " REAL NOT NULL, " +
+            StatsEntry.COLUMN_MAX_HUMIDITY + " REAL NOT NULL, " +
+            COLUMN_SUM_HUMIDITY + " REAL NOT NULL, " +
+            StatsEntry.COLUMN_MIN_PRESSURE + " REAL NOT NULL, " +
+            StatsEntry.COLUMN_MAX_PRESSURE + " REAL NOT NULL, " +
+            COLUMN_SUM_PRESSURE + " REAL NOT NULL, " +
+            // Stats are read a location and a bucket size at a time, in date order
+            " UNIQUE (" + StatsEntry.COLUMN_LOC_KEY + ", " + COLUMN_BUCKET + ", " +
+            StatsEntry.COLUMN_START + ") ON CONFLICT REPLACE);";
+
+    private WeatherRollup() {
+    }
+
+    /**
+     * @param bucket {@link StatsEntry#BUCKET_DAY}, {@link StatsEntry#BUCKET_WEEK} or
+     *               {@link StatsEntry#BUCKET_MONTH}
+     */
+    static int getBucket(String bucket) {
+        if (StatsEntry.BUCKET_DAY.equals(bucket)) {
+            return BUCKET_DAY;
+        } else if (StatsEntry.BUCKET_WEEK.equals(bucket)) {
+            return BUCKET_WEEK;
+        } else if (StatsEntry.BUCKET_MONTH.equals(bucket)) {
+            return BUCKET_MONTH;
+        }
+        throw new IllegalArgumentException("Unknown bucket: " + bucket);
+    }
+
+    /**
+     * @return the normalized first day of the bucket that holds the normalized date
+     */
+    static long getBucketStart(int bucket, long date, Time time) {
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        switch (bucket) {
+            case BUCKET_WEEK:
+                // Julian day 0 was a Monday
+                return time.setJulianDay(julianDay - julianDay % 7);
+            case BUCKET_MONTH:
+                return time.setJulianDay(julianDay - (time.monthDay - 1));
+            default:
+                return date;
+        }
+    }
+
+    /**
+     * @return the normalized first day of the bucket after the one that starts at the date
+     */
+    private static long getNextBucketStart(int bucket, long start, Time time) {
+        time.set(start);
+        int julianDay = Time.getJulianDay(start, time.gmtoff);
+        if (bucket == BUCKET_WEEK) {
+            return time.setJulianDay(julianDay + 7);
+        }
+        return time.setJulianDay(julianDay + time.getActualMaximum(Time.MONTH_DAY));
+    }
+
+    /**
+     * Brings the rollups of the given days up to date with the weather table.
+     *
+     * @param dates the changed normalized dates of each location, by location row ID
+     */
+    static void update(SQLiteDatabase db, Map<Long, Set<Long>> dates) {
+        for (Map.Entry<Long, Set<Long>> entry : dates.entrySet()) {
+            TreeSet<Long> locationDates = new TreeSet<>(entry.getValue());
+            // Days between the changed ones are read again too, which leaves them as they were
+            db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " (" + COLUMNS + ") " +
+                            SELECT_DAYS + WeatherEntry.TABLE_NAME +
+                            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?" +
+                            " AND " + WeatherEntry.COLUMN_DATE + " >= ?" +
+                            " AND " + WeatherEntry.COLUMN_DATE + " <= ?",
+                    new Object[] {entry.getKey(), locationDates.first(), locationDates.last()});
+        }
+        updateBuckets(db, dates);
+    }
+
+    /**
+     * Computes the weeks and months that hold the given days again from their daily rollups.
+     */
+    private static void updateBuckets(SQLiteDatabase db, Map<Long, Set<Long>> dates) {
+        Time time = new Time();
+        for (Map.Entry<Long, Set<Long>> entry : dates.entrySet()) {
+            for (int bucket = BUCKET_WEEK; bucket <= BUCKET_MONTH; bucket++) {
+                Set<Long> starts = new TreeSet<>();
+                for (long date : entry.getValue()) {
+                    starts.add(getBucketStart(bucket, date, time));
+                }
+                for (long start : starts) {
+                    db.execSQL(INSERT_BUCKET, new Object[] {bucket, start, entry.getKey(), start,
+                            getNextBucketStart(bucket, start, time)});
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds every rollup from the weather table and the history, for a database that had none.
+     */
+    static void rebuild(SQLiteDatabase db) {
+        String insert = "INSERT INTO " + StatsEntry.TABLE_NAME + " (" + COLUMNS + ") ";
+        for (String table : WeatherHistory.getTables(db)) {
+            db.execSQL(insert + SELECT_DAYS + table);
+        }
+        // After the history, so that a day in both is taken from the weather table
+        db.execSQL(insert + SELECT_DAYS + WeatherEntry.TABLE_NAME);
+
+        Map<Long, Set<Long>> dates = new HashMap<>();
+        Cursor cursor = db.query(StatsEntry.TABLE_NAME,
+                new String[] {StatsEntry.COLUMN_LOC_KEY, StatsEntry.COLUMN_START},
+                COLUMN_BUCKET + " = " + BUCKET_DAY, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Set<Long> locationDates = dates.get(cursor.getLong(0));
+                if (locationDates == null) {
+                    locationDates = new TreeSet<>();
+                    dates.put(cursor.getLong(0), locationDates);
+                }
+                locationDates.add(cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        updateBuckets(db, dates);
+    }
+
+    /**
+     * Deletes the rollups of locations that are gone.
+     */
+    static void deleteOrphans(SQLiteDatabase db) {
+        db.delete(StatsEntry.TABLE_NAME, StatsEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                WeatherContract.LocationEntry._ID + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + ")", null);
+    }
+
+    /**
+     * @return the columns of {@link StatsEntry} by name, with the averages computed from the sums
+     */
+    static Map<String, String> buildProjectionMap() {
+        Map<String, String> map = new HashMap<>();
+        String table = StatsEntry.TABLE_NAME + ".";
+        map.put(StatsEntry._ID, table + StatsEntry._ID + " AS " + StatsEntry._ID);
+        for (String column : new String[] {StatsEntry.COLUMN_LOC_KEY, StatsEntry.COLUMN_START,
+                StatsEntry.COLUMN_DAYS, StatsEntry.COLUMN_MIN_TEMP, StatsEntry.COLUMN_MAX_TEMP,
+                StatsEntry.COLUMN_MIN_HUMIDITY, StatsEntry.COLUMN_MAX_HUMIDITY,
+                StatsEntry.COLUMN_MIN_PRESSURE, StatsEntry.COLUMN_MAX_PRESSURE}) {
+            map.put(column, table + column + " AS " + column);
+        }
+        putAverage(map, StatsEntry.COLUMN_AVG_MIN_TEMP, COLUMN_SUM_MIN_TEMP);
+        putAverage(map, StatsEntry.COLUMN_AVG_MAX_TEMP, COLUMN_SUM_MAX_TEMP);
+        putAverage(map, StatsEntry.COLUMN_AVG_HUMIDITY, COLUMN_SUM_HUMIDITY);
+        putAverage(map, StatsEntry.COLUMN_AVG_PRESSURE, COLUMN_SUM_PRESSURE);
+        return map;
+    }
+
+    private static void putAverage(Map<String, String> map, String column, String sumColumn) {
+        map.put(column, StatsEntry.TABLE_NAME + "." + sumColumn + " / " +
+                StatsEntry.TABLE_NAME + "." + StatsEntry.COLUMN_DAYS + " AS " + column);
+    }
+}
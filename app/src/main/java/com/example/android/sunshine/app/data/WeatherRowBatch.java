@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A batch of weather rows held in parallel primitive arrays, for
+ * {@link WeatherContract.WeatherEntry#METHOD_INSERT_ROWS}.
+ *
+ * Unlike an array of ContentValues, adding a row boxes nothing, and the provider binds the
+ * values straight into one compiled statement.  Dates are normalized by the provider, the same
+ * way insert and bulkInsert do it.
+ */
+public class WeatherRowBatch implements Parcelable {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    int size;
+    long[] locationId;
+    long[] date;
+    int[] weatherId;
+    String[] shortDesc;
+    double[] min;
+    double[] max;
+    double[] humidity;
+    double[] pressure;
+    double[] wind;
+    double[] degrees;
+
+    public WeatherRowBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public WeatherRowBatch(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empties the batch.  The arrays are kept for the next rows.
+     */
+    public void clear() {
+        // Drop the description references so old strings can be collected
+        for (int i = 0; i < size; i++) {
+            shortDesc[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Appends a row, growing the arrays if needed.
+     *
+     * @return the index of the new row
+     */
+    public int add(long locationId, long date, int weatherId, String shortDesc,
+                   double min, double max, double humidity, double pressure,
+                   double wind, double degrees) {
+        if (size == this.locationId.length) {
+            grow(size * 2);
+        }
+        int row = size++;
+        this.locationId[row] = locationId;
+        this.date[row] = date;
+        this.weatherId[row] = weatherId;
+        this.shortDesc[row] = shortDesc;
+        this.min[row] = min;
+        this.max[row] = max;
+        this.humidity[row] = humidity;
+        this.pressure[row] = pressure;
+        this.wind[row] = wind;
+        this.degrees[row] = degrees;
+        return row;
+    }
+
+    public long getLocationId(int row) {
+        return locationId[row];
+    }
+
+    public long getDate(int row) {
+        return date[row];
+    }
+
+    /**
+     * Builds the values of one row, for providers or API levels without the batch method.
+     */
+    public ContentValues toContentValues(int row) {
+        ContentValues weatherValues = toUpdateValues(row);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId[row]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, date[row]);
+        return weatherValues;
+    }
+
+    /**
+     * Builds the values an update of the row's location and date sets, which are all of them but
+     * those two.
+     */
+    public ContentValues toUpdateValues(int row) {
+        ContentValues weatherValues = new ContentValues();
+
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity[row]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure[row]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, wind[row]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, degrees[row]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, max[row]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, min[row]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, shortDesc[row]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId[row]);
+        return weatherValues;
+    }
+
+    private void allocate(int capacity) {
+        locationId = new long[capacity];
+        date = new long[capacity];
+        weatherId = new int[capacity];
+        shortDesc = new String[capacity];
+        min = new double[capacity];
+        max = new double[capacity];
+        humidity = new double[capacity];
+        pressure = new double[capacity];
+        wind = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    private void grow(int capacity) {
+        long[] oldLocationId = locationId;
+        long[] oldDate = date;
+        int[] oldWeatherId = weatherId;
+        String[] oldShortDesc = shortDesc;
+        double[] oldMin = min;
+        double[] oldMax = max;
+        double[] oldHumidity = humidity;
+        double[] oldPressure = pressure;
+        double[] oldWind = wind;
+        double[] oldDegrees = degrees;
+
+        allocate(capacity);
+        System.arraycopy(oldLocationId, 0, locationId, 0, size);
+        System.arraycopy(oldDate, 0, date, 0, size);
+        System.arraycopy(oldWeatherId, 0, weatherId, 0, size);
+        System.arraycopy(oldShortDesc, 0, shortDesc, 0, size);
+        System.arraycopy(oldMin, 0, min, 0, size);
+        System.arraycopy(oldMax, 0, max, 0, size);
+        System.arraycopy(oldHumidity, 0, humidity, 0, size);
+        System.arraycopy(oldPressure, 0, pressure, 0, size);
+        System.arraycopy(oldWind, 0, wind, 0, size);
+        System.arraycopy(oldDegrees, 0, degrees, 0, size);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    // Rows are written one after the other, so only the used part of the arrays is copied
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            dest.writeLong(locationId[i]);
+            dest.writeLong(date[i]);
+            dest.writeInt(weatherId[i]);
+            dest.writeString(shortDesc[i]);
+            dest.writeDouble(min[i]);
+            dest.writeDouble(max[i]);
+            dest.writeDouble(humidity[i]);
+            dest.writeDouble(pressure[i]);
+            dest.writeDouble(wind[i]);
+            dest.writeDouble(degrees[i]);
+        }
+    }
+
+    public static final Parcelable.Creator<WeatherRowBatch> CREATOR =
+            new Parcelable.Creator<WeatherRowBatch>() {
+                @Override
+                public WeatherRowBatch createFromParcel(Parcel in) {
+                    int size = in.readInt();
+                    WeatherRowBatch batch = new WeatherRowBatch(size);
+                    for (int i = 0; i < size; i++) {
+                        batch.add(in.readLong(), in.readLong(), in.readInt(), in.readString(),
+                                in.readDouble(), in.readDouble(), in.readDouble(),
+                                in.readDouble(), in.readDouble(), in.readDouble());
+                    }
+                    return batch;
+                }
+
+                @Override
+                public WeatherRowBatch[] newArray(int size) {
+                    return new WeatherRowBatch[size];
+                }
+            };
+}
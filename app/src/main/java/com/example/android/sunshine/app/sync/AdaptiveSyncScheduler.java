@@ -0,0 +1,171 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import java.util.Calendar;
+
+/**
+ * Schedules the next periodic sync with the interval {@link SyncSchedulePolicy} picks, after
+ * every sync.  From Lollipop on this is a one-off {@link JobScheduler} job, which schedules the
+ * one after it and asks for the sync when it runs.  The sync adapter's own periodic sync is kept
+ * at the longest interval, as a fallback for when the chain of jobs breaks.  Before Lollipop the
+ * periodic sync is configured again with the new interval.
+ *
+ * The change rate of the forecasts and when a watch face last asked for the weather are kept in
+ * their own preferences file.
+ */
+public class AdaptiveSyncScheduler {
+    private static final String LOG_TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    static final String PREFS_NAME = "sync_schedule";
+    private static final String KEY_CHANGE_RATE = "change_rate";
+    private static final String KEY_WATCH_FACE_SEEN = "watch_face_seen";
+
+    private static final int JOB_ID = 1;
+    // A watch face that asked for the weather this recently is taken to still show it
+    private static final long WATCH_FACE_SEEN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    public AdaptiveSyncScheduler(Context context) {
+        mContext = context.getApplicationContext();
+        mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records that a watch face asked for the weather.
+     */
+    public void noteWatchFaceSeen() {
+        mPrefs.edit().putLong(KEY_WATCH_FACE_SEEN, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Folds what a sync changed into the change rate and schedules the next sync.  This should
+     * not be called from the UI thread because it uses commit to write to the shared preferences.
+     *
+     * @param syncResult the rows the sync stored, or null if it didn't fetch anything
+     */
+    void onSyncFinished(SyncResult syncResult) {
+        if (syncResult != null) {
+            long changed = syncResult.stats.numInserts + syncResult.stats.numUpdates;
+            long rows = changed + syncResult.stats.numSkippedEntries;
+            // A sync that stored nothing was answered with "not modified"
+            double changeRate = SyncSchedulePolicy.updateChangeRate(getChangeRate(),
+                    rows > 0 ? (double) changed / rows : 0);
+            mPrefs.edit().putFloat(KEY_CHANGE_RATE, (float) changeRate).commit();
+        }
+        scheduleNext();
+    }
+
+    /**
+     * Schedules the next sync from now, replacing the one scheduled before.
+     */
+    public void scheduleNext() {
+        int interval = SyncSchedulePolicy.getInterval(SunshineSyncAdapter.SYNC_INTERVAL,
+                getChangeRate(), Calendar.getInstance().get(Calendar.HOUR_OF_DAY),
+                isUnmetered(), isCharging(), isSurfaceVisible());
+        int flexTime = SyncSchedulePolicy.getFlexTime(interval);
+        Log.d(LOG_TAG, "Next sync in " + interval / 60 + " minutes, change rate "
+                + getChangeRate());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(interval, flexTime);
+        } else {
+            SunshineSyncAdapter.configurePeriodicSync(mContext, interval, flexTime);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void scheduleJob(int interval, int flexTime) {
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(mContext, SunshineSyncJobService.class))
+                .setMinimumLatency((interval - flexTime) * 1000L)
+                .setOverrideDeadline(interval * 1000L)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPersisted(true)
+                .build();
+        JobScheduler jobScheduler =
+                (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        // Scheduling with the same id replaces the pending job
+        jobScheduler.schedule(job);
+        // The jobs set the pace, and the periodic sync only catches a sync that was asked for
+        // and never ran, or jobs cleared by a force stop
+        SunshineSyncAdapter.configurePeriodicSync(mContext, SyncSchedulePolicy.MAX_INTERVAL,
+                SyncSchedulePolicy.getFlexTime(SyncSchedulePolicy.MAX_INTERVAL));
+    }
+
+    /**
+     * Schedules the next sync if none is pending, as after a force stop, which clears the app's
+     * jobs.  A pending job is left alone, so that starting the app doesn't put it off.
+     */
+    public void ensureScheduled() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && !isJobPending()) {
+            scheduleNext();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private boolean isJobPending() {
+        JobScheduler jobScheduler =
+                (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double getChangeRate() {
+        return mPrefs.getFloat(KEY_CHANGE_RATE, (float) SyncSchedulePolicy.DEFAULT_CHANGE_RATE);
+    }
+
+    private boolean isUnmetered() {
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !cm.isActiveNetworkMetered();
+        }
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+
+    private boolean isCharging() {
+        // ACTION_BATTERY_CHANGED is sticky, so this reads the last broadcast without registering
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    /**
+     * @return true if a widget is placed or a watch face asked for the weather lately
+     */
+    private boolean isSurfaceVisible() {
+        long watchFaceSeen = mPrefs.getLong(KEY_WATCH_FACE_SEEN, 0);
+        if (System.currentTimeMillis() - watchFaceSeen < WATCH_FACE_SEEN_MILLIS) {
+            return true;
+        }
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(mContext);
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(mContext, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(mContext, DetailWidgetProvider.class)).length > 0;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Stops forecast requests for a cooldown once the server has failed a number of requests in a
+ * row, so syncs asked for by hand don't keep hammering a server that is down.
+ *
+ * While closed every request goes through.  After failureThreshold consecutive failures it
+ * opens and refuses every request until the cooldown is over.  It then lets one trial request
+ * through: the breaker closes again if the server answers, and opens for another cooldown if it
+ * doesn't.  It is shared by all of the sync's workers, and times are passed in so tests don't
+ * have to wait.
+ */
+class CircuitBreaker {
+    private final int mFailureThreshold;
+    private final long mCooldownMillis;
+
+    private int mConsecutiveFailures;
+    private long mOpenUntil;
+    // Whether the one request allowed after the cooldown is still out
+    private boolean mTrialInFlight;
+
+    CircuitBreaker(int failureThreshold, long cooldownMillis) {
+        mFailureThreshold = failureThreshold;
+        mCooldownMillis = cooldownMillis;
+    }
+
+    /**
+     * @return true if a request may be made now.  Every allowed request must be followed by
+     * {@link #onSuccess()} or {@link #onFailure(long)}.
+     */
+    synchronized boolean allowRequest(long nowMillis) {
+        if (mConsecutiveFailures < mFailureThreshold) {
+            return true;
+        }
+        if (nowMillis < mOpenUntil || mTrialInFlight) {
+            return false;
+        }
+        mTrialInFlight = true;
+        return true;
+    }
+
+    /**
+     * Records that the server answered, whatever the answer was.
+     */
+    synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        mOpenUntil = 0;
+        mTrialInFlight = false;
+    }
+
+    synchronized void onFailure(long nowMillis) {
+        mConsecutiveFailures++;
+        mTrialInFlight = false;
+        if (mConsecutiveFailures >= mFailureThreshold) {
+            mOpenUntil = nowMillis + mCooldownMillis;
+        }
+    }
+
+    /**
+     * @return the time the breaker lets a request through again, or 0 if it is closed
+     */
+    synchronized long getOpenUntil() {
+        return mConsecutiveFailures >= mFailureThreshold ? mOpenUntil : 0;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherRowBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compares a freshly parsed forecast with the rows already stored for its location, and collects
+ * the days that need writing: each new day, and each day whose values changed.  Days that are the
+ * same are left alone.
+ *
+ * The sync writes {@link #getInsertRows()} and {@link #getUpdateRows()} with
+ * {@link WeatherContract.WeatherEntry#METHOD_INSERT_ROWS}, along with the forecast's location,
+ * which the provider stores first and gives its row ID to every row, all in one transaction.
+ * Without ContentResolver.call it writes {@link #getOperations(ContentValues)}: one batch for
+ * {@link android.content.ContentResolver#applyBatch} that does the same.  Either way a new day is
+ * inserted and a changed day is updated in place by its location and date, so it keeps its row
+ * ID.
+ */
+public class ForecastDiff {
+
+    // The stored columns needed to compare a day, in the order used by the INDEX constants
+    static final String[] STORED_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    // these indices must match the projection
+    static final int INDEX_ID = 0;
+    static final int INDEX_DATE = 1;
+    static final int INDEX_HUMIDITY = 2;
+    static final int INDEX_PRESSURE = 3;
+    static final int INDEX_WIND_SPEED = 4;
+    static final int INDEX_DEGREES = 5;
+    static final int INDEX_MAX_TEMP = 6;
+    static final int INDEX_MIN_TEMP = 7;
+    static final int INDEX_SHORT_DESC = 8;
+    static final int INDEX_WEATHER_ID = 9;
+
+    // location_id = ?
+    static final String STORED_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?";
+
+    // location_id = (SELECT _id FROM location WHERE location_setting = ?)
+    // The location is given by its setting, so the stored rows can be read before the location's
+    // row ID is known.  Both go to the weather URI, which isn't cached by the provider.
+    static final String STORED_BY_SETTING_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)";
+
+    // location_id = ? AND date = ?, which the weather_location_date index answers
+    static final String UPDATE_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    // The location ID to compare with when the rows will take it from the location written with
+    // them
+    public static final long BACK_REFERENCED_LOCATION_ID = 0;
+
+    private final WeatherRowBatch mInsertRows = new WeatherRowBatch();
+    private final WeatherRowBatch mUpdateRows = new WeatherRowBatch();
+    private int mInserts;
+    private int mUpdates;
+    private int mUnchanged;
+
+    /**
+     * Compares the forecast with the stored rows.
+     *
+     * @param buffer the parsed forecast
+     * @param locationId the row ID of the forecast's location, or
+     *                   {@link #BACK_REFERENCED_LOCATION_ID} for a new or unknown location whose
+     *                   rows will be written along with it
+     * @param dates the normalized date of each row of the buffer
+     * @param stored the location's stored rows, with {@link #STORED_PROJECTION}.  It is read from
+     *               the start and not closed.
+     */
+    public void compare(ForecastRowBuffer buffer, long locationId, long[] dates, Cursor stored) {
+        mInsertRows.clear();
+        mUpdateRows.clear();
+        mInserts = 0;
+        mUpdates = 0;
+        mUnchanged = 0;
+
+        // A forecast is 14 or 16 days, so a map from date to cursor position is plenty
+        HashMap<Long, Integer> storedPositions = new HashMap<>();
+        if (stored != null && stored.moveToFirst()) {
+            do {
+                storedPositions.put(stored.getLong(INDEX_DATE), stored.getPosition());
+            } while (stored.moveToNext());
+        }
+
+        for (int row = 0; row < buffer.size(); row++) {
+            Integer position = storedPositions.get(dates[row]);
+            if (position == null) {
+                addRow(mInsertRows, buffer, row, locationId, dates[row]);
+                mInserts++;
+                continue;
+            }
+
+            stored.moveToPosition(position);
+            if (isSameDay(buffer, row, stored)) {
+                mUnchanged++;
+            } else {
+                addRow(mUpdateRows, buffer, row, locationId, dates[row]);
+                mUpdates++;
+            }
+        }
+    }
+
+    /**
+     * @return the new days, for {@link WeatherContract.WeatherEntry#EXTRA_ROWS}
+     */
+    public WeatherRowBatch getInsertRows() {
+        return mInsertRows;
+    }
+
+    /**
+     * @return the changed days, for {@link WeatherContract.WeatherEntry#EXTRA_UPDATE_ROWS}
+     */
+    public WeatherRowBatch getUpdateRows() {
+        return mUpdateRows;
+    }
+
+    /**
+     * Builds the writes as operations for applyBatch.
+     *
+     * @param location the values of the forecast's location, or null if the rows already hold
+     *                 its row ID.  The location is inserted first, which gives the row ID of the
+     *                 stored location if it already exists, and every row references the result.
+     */
+    public ArrayList<ContentProviderOperation> getOperations(ContentValues location) {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<>(mInsertRows.size() + mUpdateRows.size() + 1);
+        int locationIndex = -1;
+        if (location != null) {
+            locationIndex = operations.size();
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(location)
+                    .build());
+        }
+        for (int row = 0; row < mInsertRows.size(); row++) {
+            ContentProviderOperation.Builder insert = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(mInsertRows.toContentValues(row));
+            if (locationIndex >= 0) {
+                insert.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locationIndex);
+            }
+            operations.add(insert.build());
+        }
+        for (int row = 0; row < mUpdateRows.size(); row++) {
+            ContentProviderOperation.Builder update = ContentProviderOperation
+                    .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(mUpdateRows.toUpdateValues(row))
+                    .withSelection(UPDATE_SELECTION, new String[] {
+                            Long.toString(mUpdateRows.getLocationId(row)),
+                            Long.toString(mUpdateRows.getDate(row))});
+            if (locationIndex >= 0) {
+                update.withSelectionBackReference(0, locationIndex);
+            }
+            operations.add(update.build());
+        }
+        return operations;
+    }
+
+    public int getInsertCount() {
+        return mInserts;
+    }
+
+    public int getUpdateCount() {
+        return mUpdates;
+    }
+
+    public int getUnchangedCount() {
+        return mUnchanged;
+    }
+
+    /**
+     * @return true if writing the rows changes any stored row
+     */
+    public boolean hasChanges() {
+        return mInserts > 0 || mUpdates > 0;
+    }
+
+    private static void addRow(WeatherRowBatch rows, ForecastRowBuffer buffer, int row,
+                               long locationId, long date) {
+        rows.add(locationId, date, buffer.weatherId[row], buffer.description[row],
+                buffer.low[row], buffer.high[row], buffer.humidity[row], buffer.pressure[row],
+                buffer.windSpeed[row], buffer.windDirection[row]);
+    }
+
+    private static boolean isSameDay(ForecastRowBuffer buffer, int row, Cursor stored) {
+        // The values are stored as REAL, which round-trips a double exactly
+        return stored.getDouble(INDEX_HUMIDITY) == buffer.humidity[row]
+                && stored.getDouble(INDEX_PRESSURE) == buffer.pressure[row]
+                && stored.getDouble(INDEX_WIND_SPEED) == buffer.windSpeed[row]
+                && stored.getDouble(INDEX_DEGREES) == buffer.windDirection[row]
+                && stored.getDouble(INDEX_MAX_TEMP) == buffer.high[row]
+                && stored.getDouble(INDEX_MIN_TEMP) == buffer.low[row]
+                && stored.getInt(INDEX_WEATHER_ID) == buffer.weatherId[row]
+                && buffer.description[row].equals(stored.getString(INDEX_SHORT_DESC));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.TodayForecast;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands a newly stored forecast for today to everything that shows it outside the app, like the
+ * widgets, Muzei, the notification and the wearable.
+ *
+ * Listeners run on a small pool of their own, so the sync that stored the forecast doesn't wait
+ * for them.  Each listener has a timeout, counted from the publish: one that hasn't finished by
+ * then is interrupted, or dropped if it hasn't started, and the others aren't held up by it.
+ */
+public class ForecastFanOut {
+    private static final String LOG_TAG = ForecastFanOut.class.getSimpleName();
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public interface Listener {
+        /**
+         * Called on the fan-out pool after a sync changed the forecast of the preferred
+         * location.  The forecast is the one just stored, so there is no need to read it back.
+         */
+        void onForecastChanged(TodayForecast today);
+    }
+
+    private static final class Registration {
+        final String name;
+        final long timeoutMillis;
+        final Listener listener;
+
+        Registration(String name, long timeoutMillis, Listener listener) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+            this.listener = listener;
+        }
+    }
+
+    private final List<Registration> mRegistrations = new CopyOnWriteArrayList<>();
+    private final ThreadPoolExecutor mExecutor;
+    // Interrupts the listeners that run past their timeout
+    private final ScheduledThreadPoolExecutor mWatchdog;
+
+    public ForecastFanOut(int poolSize) {
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Forecasts change a few times a day at most, so don't keep idle threads around
+        mExecutor.allowCoreThreadTimeOut(true);
+        mWatchdog = new ScheduledThreadPoolExecutor(1);
+        mWatchdog.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mWatchdog.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param name identifies the listener in the log
+     * @param timeoutMillis how long the listener may take once a forecast is published
+     */
+    public void register(String name, long timeoutMillis, Listener listener) {
+        mRegistrations.add(new Registration(name, timeoutMillis, listener));
+    }
+
+    /**
+     * Queues every registered listener with the forecast and returns without waiting for them.
+     */
+    public void publish(final TodayForecast today) {
+        for (final Registration registration : mRegistrations) {
+            final Future<?> future = mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        registration.listener.onForecastChanged(today);
+                    } catch (RuntimeException e) {
+                        // Nothing waits on the future, so this would go unnoticed otherwise
+                        Log.e(LOG_TAG, "Error in " + registration.name, e);
+                    }
+                }
+            });
+            mWatchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.cancel(true)) {
+                        Log.w(LOG_TAG, registration.name + " took more than "
+                                + registration.timeoutMillis + " ms, cancelled");
+                    }
+                }
+            }, registration.timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
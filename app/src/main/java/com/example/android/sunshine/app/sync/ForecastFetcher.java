@@ -0,0 +1,420 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.SyncResult;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+/**
+ * Downloads the daily forecast for one location into a {@link ForecastRowBuffer}, using the
+ * validators in a {@link ForecastValidatorStore} to avoid work when the forecast hasn't changed.
+ *
+ * The request carries If-None-Match and If-Modified-Since when the store has them, so a server
+ * that supports them can answer 304 with no body.  Servers that ignore them (OpenWeatherMap
+ * usually does) still get the body hashed as it is read, and a body that matches the stored
+ * hash is reported as unchanged.
+ *
+ * The validators of a fresh response are only held by the fetcher until
+ * {@link #saveValidators(String, int)} is called, which the sync adapter does once the rows are
+ * safely in the database.
+ *
+ * When a group endpoint is configured the fetcher can also download the forecasts of several
+ * cities, by OpenWeatherMap city id, in one request.  Group requests are never conditional,
+ * since one response covers many locations.
+ *
+ * {@link #fetchWithRetry} retries a failed request according to a {@link RetryPolicy}, and asks
+ * a {@link CircuitBreaker} before every request.
+ */
+public class ForecastFetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    public static final String DEFAULT_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    static final String QUERY_PARAM = "q";
+    static final String ID_PARAM = "id";
+    static final String FORMAT_PARAM = "mode";
+    static final String UNITS_PARAM = "units";
+    static final String DAYS_PARAM = "cnt";
+    static final String APPID_PARAM = "APPID";
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    // Not in HttpURLConnection
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({RESULT_PARSED, RESULT_NOT_MODIFIED, RESULT_UNCHANGED})
+    public @interface FetchResult {}
+
+    // The buffer holds a new response.  It may still carry an error in its message code.
+    public static final int RESULT_PARSED = 0;
+    // The server answered 304, the buffer is untouched.
+    public static final int RESULT_NOT_MODIFIED = 1;
+    // The body was identical to the stored one.  The buffer should not be used.
+    public static final int RESULT_UNCHANGED = 2;
+
+    private final String mBaseUrl;
+    private final String mGroupBaseUrl;
+    private final ForecastValidatorStore mValidatorStore;
+
+    // Validators of the last RESULT_PARSED response, kept until saveValidators
+    private String mPendingEtag;
+    private String mPendingLastModified;
+    private String mPendingContentHash;
+
+    public ForecastFetcher(ForecastValidatorStore validatorStore) {
+        this(DEFAULT_BASE_URL, BuildConfig.FORECAST_GROUP_URL, validatorStore);
+    }
+
+    public ForecastFetcher(String baseUrl, ForecastValidatorStore validatorStore) {
+        this(baseUrl, null, validatorStore);
+    }
+
+    /**
+     * @param baseUrl the URL of the single city forecast endpoint
+     * @param groupBaseUrl the URL of an endpoint serving several forecasts by city id, or null
+     * @param validatorStore where validators are read from and saved to
+     */
+    public ForecastFetcher(String baseUrl, String groupBaseUrl,
+                           ForecastValidatorStore validatorStore) {
+        mBaseUrl = baseUrl;
+        mGroupBaseUrl = groupBaseUrl;
+        mValidatorStore = validatorStore;
+    }
+
+    /**
+     * @return true if {@link #fetchGroup(long[], int, ForecastRowBuffer[])} can be used.  Group
+     * responses are only parsed in streaming mode, so this needs Honeycomb.
+     */
+    public boolean canFetchGroup() {
+        return mGroupBaseUrl != null
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Fetches the forecast for a location.
+     *
+     * @param locationSetting the location, as the user entered it in settings
+     * @param julianDay the local julian day of the sync, which the stored validators must match
+     * @param buffer the buffer to parse into
+     * @throws IOException if the request fails or the response is empty
+     * @throws JSONException if the response is not a valid forecast
+     */
+    @FetchResult
+    public int fetch(String locationSetting, int julianDay, ForecastRowBuffer buffer)
+            throws IOException, JSONException {
+        clearPending();
+
+        String etag = mValidatorStore.getEtag(locationSetting, julianDay);
+        String lastModified = mValidatorStore.getLastModified(locationSetting, julianDay);
+        String storedHash = mValidatorStore.getContentHash(locationSetting, julianDay);
+
+        HttpURLConnection urlConnection = null;
+        try {
+            URL url = new URL(buildUri(locationSetting).toString());
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            if (etag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null) {
+                // Echo the server's own value rather than reformatting it as a date
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+            urlConnection.connect();
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return RESULT_NOT_MODIFIED;
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // Android throws FileNotFoundException for any of these, so say which it was
+                throw new HttpStatusException(responseCode);
+            }
+
+            DigestInputStream inputStream =
+                    new DigestInputStream(urlConnection.getInputStream(), newDigest());
+            String contentHash;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Parse the rows straight off the network stream.  The hash is only known once
+                // the whole body has gone through the parser, so an unchanged body still costs
+                // the parse, but never the database writes.
+                ForecastJsonParser.parse(inputStream, buffer);
+                drain(inputStream);
+                contentHash = toHex(inputStream.getMessageDigest().digest());
+                if (contentHash.equals(storedHash)) {
+                    return RESULT_UNCHANGED;
+                }
+            } else {
+                String forecastJsonStr = ForecastJsonParser.readFully(inputStream);
+                if (forecastJsonStr.length() == 0) {
+                    // Stream was empty.  No point in parsing.
+                    throw new EOFException("Empty forecast response");
+                }
+                contentHash = toHex(inputStream.getMessageDigest().digest());
+                if (contentHash.equals(storedHash)) {
+                    return RESULT_UNCHANGED;
+                }
+                ForecastJsonParser.parse(forecastJsonStr, buffer);
+            }
+
+            if (buffer.messageCode == HttpURLConnection.HTTP_OK) {
+                mPendingEtag = urlConnection.getHeaderField(HEADER_ETAG);
+                mPendingLastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+                mPendingContentHash = contentHash;
+            }
+            return RESULT_PARSED;
+        } finally {
+            if (urlConnection != null) {
+                // Disconnecting also closes the response stream
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Fetches the forecast for a location like {@link #fetch}, trying again after a network
+     * error or a server error as long as the retry policy and the circuit breaker allow.  When
+     * it gives up the failure is counted in the sync result, which also gets the time the
+     * breaker reopens if it is open, so the framework backs off.
+     *
+     * @throws IOException the last request's error, or a {@link CircuitOpenException} if the
+     * breaker refused the request
+     * @throws JSONException if the response is not a valid forecast
+     */
+    @FetchResult
+    public int fetchWithRetry(String locationSetting, int julianDay, ForecastRowBuffer buffer,
+                              RetryPolicy retryPolicy, CircuitBreaker breaker,
+                              SyncResult syncResult) throws IOException, JSONException {
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.allowRequest(System.currentTimeMillis())) {
+                recordFailure(breaker, syncResult);
+                throw new CircuitOpenException(breaker.getOpenUntil());
+            }
+            try {
+                int result = fetch(locationSetting, julianDay, buffer);
+                breaker.onSuccess();
+                return result;
+            } catch (JSONException e) {
+                // The server answered with something unreadable.  Asking again won't change
+                // that.
+                breaker.onSuccess();
+                throw e;
+            } catch (IOException e) {
+                if (!isRetryable(e)) {
+                    breaker.onSuccess();
+                    throw e;
+                }
+                breaker.onFailure(System.currentTimeMillis());
+                // No use waiting to retry if this failure opened the breaker
+                if (attempt >= retryPolicy.getMaxAttempts() || breaker.getOpenUntil() > 0) {
+                    recordFailure(breaker, syncResult);
+                    throw e;
+                }
+                long delay = retryPolicy.getDelayMillis(attempt - 1);
+                Log.w(LOG_TAG, "Fetching " + locationSetting + " failed, attempt " + attempt
+                        + ", retrying in " + delay + " ms: " + e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    // The sync was cancelled
+                    Thread.currentThread().interrupt();
+                    recordFailure(breaker, syncResult);
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                // Don't leave a trial request of the breaker outstanding
+                breaker.onFailure(System.currentTimeMillis());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return true for network errors, server errors and rate limiting, but not for the other
+     * client errors, which a retry would get again
+     */
+    private static boolean isRetryable(IOException e) {
+        if (!(e instanceof HttpStatusException)) {
+            return true;
+        }
+        int statusCode = ((HttpStatusException) e).getStatusCode();
+        return statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || statusCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    private static void recordFailure(CircuitBreaker breaker, SyncResult syncResult) {
+        syncResult.stats.numIoExceptions++;
+        long openUntil = breaker.getOpenUntil();
+        if (openUntil > 0) {
+            // delayUntil is in seconds
+            syncResult.delayUntil = Math.max(syncResult.delayUntil, openUntil / 1000);
+        }
+    }
+
+    /**
+     * Thrown when the server answers with an HTTP error.
+     */
+    public static class HttpStatusException extends IOException {
+        private final int mStatusCode;
+
+        public HttpStatusException(int statusCode) {
+            super("HTTP " + statusCode);
+            mStatusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+    }
+
+    /**
+     * Thrown instead of making a request while the circuit breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(long openUntil) {
+            super("Not fetching, the server failed too often.  Trying again at "
+                    + new Date(openUntil));
+        }
+    }
+
+    /**
+     * Fetches the forecasts of several cities with one request.  Cities the server doesn't know
+     * are simply missing from the result, so callers should check the city id of each buffer and
+     * fetch any city left over on its own.
+     *
+     * @param cityIds OpenWeatherMap ids of the cities
+     * @param count the number of ids to use, at most buffers.length
+     * @param buffers the buffers to parse into
+     * @return the number of buffers filled, in no particular order
+     * @throws IOException if the request fails
+     * @throws JSONException if the response is not a valid group response
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public int fetchGroup(long[] cityIds, int count, ForecastRowBuffer[] buffers)
+            throws IOException, JSONException {
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                ids.append(',');
+            }
+            ids.append(cityIds[i]);
+        }
+
+        HttpURLConnection urlConnection = null;
+        try {
+            URL url = new URL(Uri.parse(mGroupBaseUrl).buildUpon()
+                    .appendQueryParameter(ID_PARAM, ids.toString())
+                    .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                    .appendQueryParameter(UNITS_PARAM, UNITS)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .build().toString());
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            urlConnection.connect();
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Group request failed with HTTP " + responseCode);
+            }
+            return ForecastJsonParser.parseGroup(urlConnection.getInputStream(), buffers);
+        } finally {
+            if (urlConnection != null) {
+                // Disconnecting also closes the response stream
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Stores the validators of the last forecast returned with {@link #RESULT_PARSED}.  Call this
+     * only after its rows have been stored, so a failed insert is retried in full next time.
+     */
+    public void saveValidators(String locationSetting, int julianDay) {
+        if (mPendingContentHash == null) {
+            return;
+        }
+        mValidatorStore.save(locationSetting, julianDay,
+                mPendingEtag, mPendingLastModified, mPendingContentHash);
+        clearPending();
+    }
+
+    Uri buildUri(String locationSetting) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    private void clearPending() {
+        mPendingEtag = null;
+        mPendingLastModified = null;
+        mPendingContentHash = null;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads whatever the parser left behind, normally just trailing whitespace, so that it is
+     * part of the hash.
+     */
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] skipped = new byte[256];
+        while (inputStream.read(skipped) != -1) {
+            // keep reading
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
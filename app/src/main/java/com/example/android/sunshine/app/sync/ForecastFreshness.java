@@ -0,0 +1,75 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.IntDef;
+
+import com.example.android.sunshine.app.R;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Remembers, per location setting, when its forecast was last synced successfully, whether or
+ * not anything changed, and grades it against two TTLs:
+ *
+ * - fresh, younger than the TTL: there is no point in asking the server again.
+ * - soft-stale, younger than the hard TTL: the stored forecast is shown as it is and refreshed in
+ *   the background.
+ * - hard-stale, older than that or never synced: a refresh is worth waiting for.
+ *
+ * Entries are kept in their own preferences file, like {@link ForecastValidatorStore}'s.
+ */
+public class ForecastFreshness {
+    static final String PREFS_NAME = "forecast_freshness";
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_FRESH, STATE_SOFT_STALE, STATE_HARD_STALE})
+    public @interface State {}
+
+    public static final int STATE_FRESH = 0;
+    public static final int STATE_SOFT_STALE = 1;
+    public static final int STATE_HARD_STALE = 2;
+
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    private final SharedPreferences mPrefs;
+    private final long mTtlMillis;
+    private final long mHardTtlMillis;
+
+    public ForecastFreshness(Context context) {
+        this(context,
+                context.getResources().getInteger(R.integer.freshness_ttl_minutes)
+                        * MINUTE_IN_MILLIS,
+                context.getResources().getInteger(R.integer.freshness_hard_ttl_minutes)
+                        * MINUTE_IN_MILLIS);
+    }
+
+    public ForecastFreshness(Context context, long ttlMillis, long hardTtlMillis) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mTtlMillis = ttlMillis;
+        mHardTtlMillis = hardTtlMillis;
+    }
+
+    /**
+     * Records a successful sync of the location.  This should not be called from the UI thread
+     * because it uses commit to write to the shared preferences.
+     */
+    public void markSynced(String locationSetting, long nowMillis) {
+        mPrefs.edit().putLong(locationSetting, nowMillis).commit();
+    }
+
+    /**
+     * @return how stale the location's stored forecast is at nowMillis
+     */
+    @State
+    public int getState(String locationSetting, long nowMillis) {
+        long syncedAt = mPrefs.getLong(locationSetting, -1);
+        long age = nowMillis - syncedAt;
+        // A sync in the future means the clock was set back, so its age is unknown
+        if (syncedAt == -1 || age < 0 || age >= mHardTtlMillis) {
+            return STATE_HARD_STALE;
+        }
+        return age < mTtlMillis ? STATE_FRESH : STATE_SOFT_STALE;
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Parses OpenWeatherMap daily forecast responses into a {@link ForecastRowBuffer}.
+ *
+ * There are two modes.  The streaming mode reads the response straight from the network stream
+ * with {@link JsonReader}, so the payload is never held as a String or as a JSONObject tree.
+ * JsonReader only exists on Honeycomb and up, so older devices keep using the JSONObject mode.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_ID = "id";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used by the streaming mode to check that a day had every field we store.
+    private static final int HAS_PRESSURE = 1;
+    private static final int HAS_HUMIDITY = 1 << 1;
+    private static final int HAS_WINDSPEED = 1 << 2;
+    private static final int HAS_WIND_DIRECTION = 1 << 3;
+    private static final int HAS_MAX = 1 << 4;
+    private static final int HAS_MIN = 1 << 5;
+    private static final int HAS_DESCRIPTION = 1 << 6;
+    private static final int HAS_WEATHER_ID = 1 << 7;
+    private static final int HAS_ALL_DAY_FIELDS = (1 << 8) - 1;
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Reads the whole response into a String, one line at a time.  This is what the JSONObject
+     * mode needs, and what the sync adapter did for every sync before the streaming mode.
+     *
+     * @return the response, or an empty String if the stream was empty
+     */
+    static String readFully(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+            // But it does make debugging a *lot* easier if you print out the completed
+            // buffer for debugging.
+            buffer.append(line + "\n");
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Parses a complete forecast held in a String, using the JSONObject tree.
+     *
+     * @param forecastJsonStr the complete response
+     * @param buffer the buffer to fill.  It is reset first.
+     */
+    public static void parse(String forecastJsonStr, ForecastRowBuffer buffer)
+            throws JSONException {
+        buffer.reset();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            buffer.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (buffer.messageCode != HttpURLConnection.HTTP_OK) {
+                return;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        buffer.cityId = cityJson.optLong(OWM_CITY_ID);
+        buffer.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        buffer.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        buffer.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            int row = buffer.nextRow();
+
+            buffer.pressure[row] = dayForecast.getDouble(OWM_PRESSURE);
+            buffer.humidity[row] = dayForecast.getInt(OWM_HUMIDITY);
+            buffer.windSpeed[row] = dayForecast.getDouble(OWM_WINDSPEED);
+            buffer.windDirection[row] = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            buffer.description[row] = weatherObject.getString(OWM_DESCRIPTION);
+            buffer.weatherId[row] = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            buffer.high[row] = temperatureObject.getDouble(OWM_MAX);
+            buffer.low[row] = temperatureObject.getDouble(OWM_MIN);
+        }
+    }
+
+    /**
+     * Parses a forecast directly from the response stream.  The stream is read once and is not
+     * closed.
+     *
+     * @param inputStream the response body
+     * @param buffer the buffer to fill.  It is reset first.
+     * @throws IOException if reading the stream fails
+     * @throws JSONException if the response is not a valid forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static void parse(InputStream inputStream, ForecastRowBuffer buffer)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            readForecast(reader, buffer);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // These mean the server sent something that isn't a forecast, which is reported
+            // the same way as a JSONObject parse failure.
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a group response, which holds the forecasts of several cities in one "list":
+     * <pre>{"cnt":2,"list":[{"city":...,"list":[...]},{"city":...,"list":[...]}]}</pre>
+     * Each forecast goes into the next buffer, in a single pass over the stream.  Use the
+     * buffers' city ids to tell which forecast is which.  The stream is not closed.
+     *
+     * @param inputStream the response body
+     * @param buffers the buffers to fill.  Forecasts beyond the last buffer are skipped.
+     * @return the number of buffers filled
+     * @throws IOException if reading the stream fails
+     * @throws JSONException if the response is not a valid group response, or reports an error
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static int parseGroup(InputStream inputStream, ForecastRowBuffer[] buffers)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            int messageCode = HttpURLConnection.HTTP_OK;
+            int count = 0;
+            boolean hasList = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    messageCode = reader.nextInt();
+                } else if (OWM_LIST.equals(name)) {
+                    hasList = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (count < buffers.length) {
+                            readForecast(reader, buffers[count++]);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                throw new JSONException("Group request failed with code " + messageCode);
+            }
+            if (!hasList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            return count;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readForecast(JsonReader reader, ForecastRowBuffer buffer)
+            throws IOException, JSONException {
+        buffer.reset();
+        boolean hasCity = false;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends the code as a String on success and on some errors
+                buffer.messageCode = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, buffer);
+                hasCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                readDays(reader, buffer);
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (buffer.messageCode != HttpURLConnection.HTTP_OK) {
+            return;
+        }
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (!hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, ForecastRowBuffer buffer)
+            throws IOException, JSONException {
+        boolean hasLatitude = false;
+        boolean hasLongitude = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                buffer.cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                buffer.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        buffer.cityLatitude = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        buffer.cityLongitude = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (buffer.cityName == null || !hasLatitude || !hasLongitude) {
+            throw new JSONException("Incomplete value for " + OWM_CITY);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDays(JsonReader reader, ForecastRowBuffer buffer)
+            throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, buffer, buffer.nextRow());
+        }
+        reader.endArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, ForecastRowBuffer buffer, int row)
+            throws IOException, JSONException {
+        int fields = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                buffer.pressure[row] = reader.nextDouble();
+                fields |= HAS_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // JSONObject.getInt truncates fractional values, so do the same here
+                buffer.humidity[row] = (int) reader.nextDouble();
+                fields |= HAS_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                buffer.windSpeed[row] = reader.nextDouble();
+                fields |= HAS_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                buffer.windDirection[row] = reader.nextDouble();
+                fields |= HAS_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        buffer.high[row] = reader.nextDouble();
+                        fields |= HAS_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        buffer.low[row] = reader.nextDouble();
+                        fields |= HAS_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array is used
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            buffer.description[row] = reader.nextString();
+                            fields |= HAS_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            buffer.weatherId[row] = reader.nextInt();
+                            fields |= HAS_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (fields != HAS_ALL_DAY_FIELDS) {
+            throw new JSONException("Incomplete forecast for day " + row);
+        }
+    }
+}
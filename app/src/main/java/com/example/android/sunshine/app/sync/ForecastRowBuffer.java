@@ -0,0 +1,107 @@
+package com.example.android.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Reusable holder for the rows of one OpenWeatherMap forecast response.
+ *
+ * The parsers write each day straight into these parallel arrays, so a sync does not allocate
+ * per-day objects.  The arrays only grow when a response has more days than any earlier one,
+ * which means a buffer kept by the sync adapter stops allocating after the first sync.
+ */
+public class ForecastRowBuffer {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // The "cod" value of the response.  Responses without one are treated as HTTP_OK.
+    int messageCode;
+
+    // Location information.  cityId is 0 if the response didn't include one.
+    long cityId;
+    String cityName;
+    double cityLatitude;
+    double cityLongitude;
+
+    // Weather information, one entry per day starting with today.
+    int size;
+    double[] pressure;
+    int[] humidity;
+    double[] windSpeed;
+    double[] windDirection;
+    double[] high;
+    double[] low;
+    String[] description;
+    int[] weatherId;
+
+    public ForecastRowBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastRowBuffer(int capacity) {
+        allocate(Math.max(1, capacity));
+        reset();
+    }
+
+    /**
+     * Clears the buffer so it can be filled by the next response.  The arrays are kept.
+     */
+    public void reset() {
+        messageCode = HttpURLConnection.HTTP_OK;
+        cityId = 0;
+        cityName = null;
+        cityLatitude = 0;
+        cityLongitude = 0;
+        // Drop the description references so old strings can be collected
+        for (int i = 0; i < size; i++) {
+            description[i] = null;
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reserves the next row, growing the arrays if needed.
+     *
+     * @return the index of the reserved row
+     */
+    int nextRow() {
+        if (size == weatherId.length) {
+            grow(weatherId.length * 2);
+        }
+        return size++;
+    }
+
+    private void allocate(int capacity) {
+        pressure = new double[capacity];
+        humidity = new int[capacity];
+        windSpeed = new double[capacity];
+        windDirection = new double[capacity];
+        high = new double[capacity];
+        low = new double[capacity];
+        description = new String[capacity];
+        weatherId = new int[capacity];
+    }
+
+    private void grow(int capacity) {
+        double[] oldPressure = pressure;
+        int[] oldHumidity = humidity;
+        double[] oldWindSpeed = windSpeed;
+        double[] oldWindDirection = windDirection;
+        double[] oldHigh = high;
+        double[] oldLow = low;
+        String[] oldDescription = description;
+        int[] oldWeatherId = weatherId;
+
+        allocate(capacity);
+        System.arraycopy(oldPressure, 0, pressure, 0, size);
+        System.arraycopy(oldHumidity, 0, humidity, 0, size);
+        System.arraycopy(oldWindSpeed, 0, windSpeed, 0, size);
+        System.arraycopy(oldWindDirection, 0, windDirection, 0, size);
+        System.arraycopy(oldHigh, 0, high, 0, size);
+        System.arraycopy(oldLow, 0, low, 0, size);
+        System.arraycopy(oldDescription, 0, description, 0, size);
+        System.arraycopy(oldWeatherId, 0, weatherId, 0, size);
+    }
+}
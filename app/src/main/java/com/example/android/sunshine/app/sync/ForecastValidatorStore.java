@@ -0,0 +1,92 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers, per location setting, what the last stored forecast looked like on the wire: the
+ * ETag and Last-Modified validators the server sent with it and a hash of its body.  The sync
+ * adapter uses these to make conditional requests and to recognise a re-sent, unchanged forecast.
+ *
+ * Entries are kept in their own preferences file so they never show up in the settings screen.
+ * Every entry also records the julian day it was stored on.  Rows are dated relative to the day
+ * of the sync, so an identical response on a later day still has to be written; entries from an
+ * earlier day are treated as missing.
+ */
+public class ForecastValidatorStore {
+    static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG = "/etag";
+    private static final String KEY_LAST_MODIFIED = "/last_modified";
+    private static final String KEY_CONTENT_HASH = "/content_hash";
+    private static final String KEY_JULIAN_DAY = "/julian_day";
+
+    private final SharedPreferences mPrefs;
+
+    public ForecastValidatorStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the ETag stored for the location today, or null if there isn't one
+     */
+    public String getEtag(String locationSetting, int julianDay) {
+        return isCurrent(locationSetting, julianDay)
+                ? mPrefs.getString(locationSetting + KEY_ETAG, null) : null;
+    }
+
+    /**
+     * @return the Last-Modified value stored for the location today, or null if there isn't one
+     */
+    public String getLastModified(String locationSetting, int julianDay) {
+        return isCurrent(locationSetting, julianDay)
+                ? mPrefs.getString(locationSetting + KEY_LAST_MODIFIED, null) : null;
+    }
+
+    /**
+     * @return the hash of the body stored for the location today, or null if there isn't one
+     */
+    public String getContentHash(String locationSetting, int julianDay) {
+        return isCurrent(locationSetting, julianDay)
+                ? mPrefs.getString(locationSetting + KEY_CONTENT_HASH, null) : null;
+    }
+
+    /**
+     * Records the validators of a response whose rows have been stored.  This should not be
+     * called from the UI thread because it uses commit to write to the shared preferences.
+     */
+    public void save(String locationSetting, int julianDay, String etag, String lastModified,
+                     String contentHash) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        putOrRemove(editor, locationSetting + KEY_ETAG, etag);
+        putOrRemove(editor, locationSetting + KEY_LAST_MODIFIED, lastModified);
+        putOrRemove(editor, locationSetting + KEY_CONTENT_HASH, contentHash);
+        editor.putInt(locationSetting + KEY_JULIAN_DAY, julianDay);
+        editor.commit();
+    }
+
+    /**
+     * Forgets the validators for a location, so that the next sync downloads and stores it in
+     * full.
+     */
+    public void clear(String locationSetting) {
+        mPrefs.edit()
+                .remove(locationSetting + KEY_ETAG)
+                .remove(locationSetting + KEY_LAST_MODIFIED)
+                .remove(locationSetting + KEY_CONTENT_HASH)
+                .remove(locationSetting + KEY_JULIAN_DAY)
+                .commit();
+    }
+
+    private boolean isCurrent(String locationSetting, int julianDay) {
+        return mPrefs.getInt(locationSetting + KEY_JULIAN_DAY, Integer.MIN_VALUE) == julianDay;
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+}
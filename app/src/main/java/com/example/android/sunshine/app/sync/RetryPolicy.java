@@ -0,0 +1,49 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * How often and how far apart a failed forecast request is tried again within one sync.
+ *
+ * The delay before each retry doubles, up to a cap, and is jittered: half of it is fixed and the
+ * other half random, so the workers of a sync, or many devices that lost the server at the same
+ * moment, don't all retry in step.
+ */
+class RetryPolicy {
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    /**
+     * @param maxAttempts the number of requests to make in all, the first one included
+     * @param baseDelayMillis the delay before the first retry, before jitter
+     * @param maxDelayMillis the cap on the delay before jitter
+     */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param retry 0 for the first retry, 1 for the second and so on
+     * @return how long to wait before the retry, between half the capped exponential delay and
+     * all of it
+     */
+    long getDelayMillis(int retry) {
+        long delay = mBaseDelayMillis << Math.min(retry, 30);
+        if (delay <= 0 || delay > mMaxDelayMillis) {
+            delay = mMaxDelayMillis;
+        }
+        long half = delay / 2;
+        synchronized (mRandom) {
+            return half + (long) (mRandom.nextDouble() * (delay - half + 1));
+        }
+    }
+}
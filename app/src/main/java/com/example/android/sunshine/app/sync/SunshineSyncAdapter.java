@@ -3,25 +3,28 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
@@ -32,10 +35,11 @@ import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.TodayForecast;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
@@ -47,28 +51,33 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Vector;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.OnConnectionFailedListener, GoogleApiClient.ConnectionCallbacks {
     private static final String WEARABLE_DATA_PATH = "/wearable_data";
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds, before the adaptive scheduler
+    // stretches or shrinks it.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
 
@@ -76,21 +85,51 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
     private final GoogleApiClient mGoogleApiClient;
 
+    // Locations are synced on a small pool so a sync of several cities doesn't take as long as
+    // all of their round-trips added up.
+    private static final int SYNC_POOL_SIZE = 3;
+    private static final long SYNC_POOL_KEEP_ALIVE_SECONDS = 30;
+
+    // What a sync stored for the preferred location is shown outside the app by listeners on a
+    // pool of their own, so the sync, and the wake lock held for it, end once the rows are
+    // written.  The timeouts are counted from the end of the sync.
+    private static final int FAN_OUT_POOL_SIZE = 2;
+    private static final long BROADCAST_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long WEARABLE_TIMEOUT_MILLIS = 30 * 1000;
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 30 * 1000;
+
+    // A failed forecast request is tried three times in all, 1 and then 2 seconds apart give or
+    // take the jitter.  Five failed requests in a row, from any location, stop all requests for
+    // ten minutes.
+    private static final int FETCH_MAX_ATTEMPTS = 3;
+    private static final long FETCH_RETRY_BASE_DELAY_MILLIS = 1000;
+    private static final long FETCH_RETRY_MAX_DELAY_MILLIS = 8000;
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_COOLDOWN_MILLIS = 10 * 60 * 1000;
+
+    private final RetryPolicy mRetryPolicy = new RetryPolicy(FETCH_MAX_ATTEMPTS,
+            FETCH_RETRY_BASE_DELAY_MILLIS, FETCH_RETRY_MAX_DELAY_MILLIS, new Random());
+    private final CircuitBreaker mBreaker =
+            new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_COOLDOWN_MILLIS);
+
+    private final ForecastValidatorStore mValidatorStore;
+    private final ForecastFreshness mFreshness;
+    private final AdaptiveSyncScheduler mScheduler;
+    // Reused by every sync so that parsing a forecast doesn't allocate per-day objects
+    private final BlockingQueue<LocationWorker> mWorkers =
+            new ArrayBlockingQueue<>(SYNC_POOL_SIZE);
+    private final ThreadPoolExecutor mExecutor = newExecutor();
+    private final ForecastFanOut mFanOut = new ForecastFanOut(FAN_OUT_POOL_SIZE);
+
+    // Group requests run on the sync thread, so these are only used there, and by the tasks
+    // storing their results before the sync finishes.
+    private final ForecastFetcher mGroupFetcher;
+    private final ForecastRowBuffer[] mGroupBuffers =
+            new ForecastRowBuffer[Utility.MAX_SAVED_LOCATIONS];
+    private final String[] mGroupLocations = new String[Utility.MAX_SAVED_LOCATIONS];
+
     @Override
     public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
 
@@ -118,7 +157,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
-
+        mValidatorStore = new ForecastValidatorStore(context);
+        mFreshness = new ForecastFreshness(context);
+        mScheduler = new AdaptiveSyncScheduler(context);
+        for (int i = 0; i < SYNC_POOL_SIZE; i++) {
+            mWorkers.add(new LocationWorker(mValidatorStore));
+        }
+        mGroupFetcher = new ForecastFetcher(mValidatorStore);
+        for (int i = 0; i < mGroupBuffers.length; i++) {
+            mGroupBuffers[i] = new ForecastRowBuffer();
+        }
+        registerFanOutListeners();
 
         mGoogleApiClient = new GoogleApiClient.Builder(getContext())
                 .addApi(Wearable.API)
@@ -132,325 +181,552 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        List<String> locations = getLocationsToSync(Utility.getSavedLocations(getContext()));
 
+        // Requests to sync these locations made from now on join this sync
+        SyncCoalescer coalescer = SyncCoalescer.getInstance(getContext());
+        coalescer.onSyncStarted(locations);
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+            syncLocations(locations, preferredLocation, syncResult);
+        } finally {
+            coalescer.onSyncFinished();
+            // Whatever asked for this sync, the next periodic one is counted from now
+            mScheduler.onSyncFinished(locations.isEmpty() ? null : syncResult);
+        }
+    }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+    /**
+     * @return the locations that weren't synced within the freshness TTL, along with any whose
+     * forecast for today is missing although they were
+     */
+    private List<String> getLocationsToSync(List<String> locations) {
+        long now = System.currentTimeMillis();
+        List<String> stale = new ArrayList<>(locations.size());
+        for (String location : locations) {
+            if (mFreshness.getState(location, now) != ForecastFreshness.STATE_FRESH
+                    || !hasTodaysForecast(location)) {
+                stale.add(location);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+        }
+        if (stale.size() < locations.size()) {
+            Log.d(LOG_TAG, "Skipping " + (locations.size() - stale.size())
+                    + " locations synced within the freshness TTL");
+        }
+        return stale;
+    }
+
+    private void syncLocations(List<String> locations, String preferredLocation,
+                               SyncResult syncResult) {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        final int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // With a group endpoint, locations whose city id is known are fetched together in one
+        // request on this thread.  Whatever that doesn't cover is fetched city by city.
+        List<String> remaining = new ArrayList<>(locations);
+        List<Future<SyncResult>> results = new ArrayList<>(locations.size());
+        List<String> resultLocations = new ArrayList<>(locations.size());
+        int requests = 0;
+        if (remaining.size() > 1 && mGroupFetcher.canFetchGroup()) {
+            requests++;
+            int fetched = fetchGroup(remaining);
+            for (int i = 0; i < fetched; i++) {
+                String location = mGroupLocations[i];
+                results.add(submitLocation(location, mGroupBuffers[i], julianStartDay,
+                        preferredLocation));
+                resultLocations.add(location);
+                remaining.remove(location);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+        }
+
+        // Every other location is fetched on the worker pool.  The network and parsing run in
+        // parallel, and each location's rows are written in their own short transaction, so
+        // one slow city doesn't hold up the others.
+        for (String location : remaining) {
+            requests++;
+            results.add(submitLocation(location, null, julianStartDay, preferredLocation));
+            resultLocations.add(location);
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                SyncResult locationResult = results.get(i).get();
+                syncResult.stats.numInserts += locationResult.stats.numInserts;
+                syncResult.stats.numUpdates += locationResult.stats.numUpdates;
+                syncResult.stats.numSkippedEntries += locationResult.stats.numSkippedEntries;
+                syncResult.stats.numIoExceptions += locationResult.stats.numIoExceptions;
+                syncResult.databaseError |= locationResult.databaseError;
+                syncResult.delayUntil = Math.max(syncResult.delayUntil,
+                        locationResult.delayUntil);
+            } catch (InterruptedException e) {
+                // The sync was cancelled, which interrupts this thread.  Pass it on to the
+                // workers and stop waiting for them.
+                for (Future<SyncResult> result : results) {
+                    result.cancel(true);
                 }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error syncing " + resultLocations.get(i), e.getCause());
             }
         }
-        return;
+        compactHistory(julianStartDay, syncResult);
+        Log.d(LOG_TAG, "Synced " + locations.size() + " locations with " + requests
+                + " requests. " + syncResult.stats);
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Moves the days before today out of the weather table into the history, keeping as many as
+     * the history preference asks for, and drops the months of history that have expired.  Only
+     * the first sync of a day does this.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param julianToday the local julian day of today
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
+    private void compactHistory(int julianToday, SyncResult syncResult) {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastCompactionKey = context.getString(R.string.pref_last_history_compaction);
+        if (prefs.getInt(lastCompactionKey, 0) == julianToday) {
+            return;
+        }
 
+        long today = new Time().setJulianDay(julianToday);
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                Bundle result = callCompactHistory(today, Utility.getHistoryDays(context));
+                // The days moved into the history left the weather table, like the delete below
+                syncResult.stats.numDeletes +=
+                        result.getInt(WeatherContract.HistoryEntry.EXTRA_ARCHIVED);
+                Log.d(LOG_TAG, "Moved " + result.getInt(
+                        WeatherContract.HistoryEntry.EXTRA_ARCHIVED) + " past days to the history,"
+                        + " dropped " + result.getInt(
+                        WeatherContract.HistoryEntry.EXTRA_DROPPED_MONTHS) + " months");
+            } else {
+                // Without ContentResolver.call, past days aren't kept
+                syncResult.stats.numDeletes += context.getContentResolver().delete(
+                        WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[] {Long.toString(today)});
             }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error compacting the history", e);
+            syncResult.databaseError = true;
+            return;
+        }
+        prefs.edit().putInt(lastCompactionKey, julianToday).apply();
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bundle callCompactHistory(long today, int keepDays) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.HistoryEntry.EXTRA_TODAY, today);
+        extras.putInt(WeatherContract.HistoryEntry.EXTRA_KEEP_DAYS, keepDays);
+        return getContext().getContentResolver().call(WeatherContract.HistoryEntry.CONTENT_URI,
+                WeatherContract.HistoryEntry.METHOD_COMPACT, null, extras);
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    /**
+     * Queues the sync of one location on the worker pool.
+     *
+     * @param fetched the location's forecast if it was already downloaded by a group request,
+     *                or null to fetch it on its own
+     */
+    private Future<SyncResult> submitLocation(final String location,
+                                              final ForecastRowBuffer fetched,
+                                              final int julianStartDay,
+                                              final String preferredLocation) {
+        return mExecutor.submit(new Callable<SyncResult>() {
+            @Override
+            public SyncResult call() throws Exception {
+                LocationWorker worker = mWorkers.take();
+                try {
+                    SyncResult locationResult = new SyncResult();
+                    boolean changed = fetched == null
+                            ? syncLocation(worker, location, julianStartDay, locationResult)
+                            : storeLocation(worker, fetched, location, julianStartDay,
+                                    locationResult);
+                    // Only the preferred location is shown outside the app.  The buffer is
+                    // reused by the next sync, so today's row is copied out of it first.
+                    if (changed && location.equals(preferredLocation)) {
+                        TodayForecast today = getTodayForecast(
+                                fetched != null ? fetched : worker.buffer, julianStartDay);
+                        if (today != null) {
+                            mFanOut.publish(today);
+                        }
+                    }
+                    return locationResult;
+                } finally {
+                    mWorkers.put(worker);
+                }
+            }
+        });
+    }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    /**
+     * @return the first row of a stored forecast, or null if the forecast was empty
+     */
+    private static TodayForecast getTodayForecast(ForecastRowBuffer buffer, int julianStartDay) {
+        if (buffer.size() == 0) {
+            return null;
+        }
+        return new TodayForecast(new Time().setJulianDay(julianStartDay), buffer.weatherId[0],
+                buffer.description[0], buffer.high[0], buffer.low[0]);
+    }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+    private void registerFanOutListeners() {
+        mFanOut.register("wearable", WEARABLE_TIMEOUT_MILLIS, new ForecastFanOut.Listener() {
+            @Override
+            public void onForecastChanged(TodayForecast today) {
+                updateWearable(today);
+            }
+        });
+        mFanOut.register("widgets", BROADCAST_TIMEOUT_MILLIS, new ForecastFanOut.Listener() {
+            @Override
+            public void onForecastChanged(TodayForecast today) {
+                updateWidgets(getContext());
+            }
+        });
+        mFanOut.register("muzei", BROADCAST_TIMEOUT_MILLIS, new ForecastFanOut.Listener() {
+            @Override
+            public void onForecastChanged(TodayForecast today) {
+                updateMuzei(getContext());
+            }
+        });
+        mFanOut.register("notification", NOTIFICATION_TIMEOUT_MILLIS,
+                new ForecastFanOut.Listener() {
+                    @Override
+                    public void onForecastChanged(TodayForecast today) {
+                        notifyWeather(today);
+                    }
+                });
+    }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    /**
+     * Downloads the forecasts of every location with a known city id in one group request.  On
+     * return mGroupBuffers and mGroupLocations hold the forecasts that came back, in matching
+     * order.  A failed group request is logged and the locations are left to the per-city path.
+     *
+     * @return the number of locations fetched
+     */
+    private int fetchGroup(List<String> locations) {
+        // Look up the city ids stored by earlier syncs
+        HashMap<Long, String> locationsByCityId = new HashMap<>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                WeatherContract.LocationEntry.COLUMN_CITY_ID + " IS NOT NULL",
+                null,
+                null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    String location = cursor.getString(0);
+                    if (locations.contains(location)) {
+                        locationsByCityId.put(cursor.getLong(1), location);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (locationsByCityId.size() < 2) {
+            // Nothing to gain over a single request
+            return 0;
+        }
 
-                double high;
-                double low;
+        long[] cityIds = new long[locationsByCityId.size()];
+        int count = 0;
+        for (Long cityId : locationsByCityId.keySet()) {
+            cityIds[count++] = cityId;
+        }
 
-                String description;
-                int weatherId;
+        // Group requests aren't retried, the cities are fetched one by one instead
+        if (!mBreaker.allowRequest(System.currentTimeMillis())) {
+            return 0;
+        }
+        int parsed;
+        try {
+            parsed = mGroupFetcher.fetchGroup(cityIds, count, mGroupBuffers);
+            mBreaker.onSuccess();
+        } catch (JSONException e) {
+            mBreaker.onSuccess();
+            Log.e(LOG_TAG, "Group request failed, fetching cities one by one", e);
+            return 0;
+        } catch (IOException e) {
+            mBreaker.onFailure(System.currentTimeMillis());
+            Log.e(LOG_TAG, "Group request failed, fetching cities one by one", e);
+            return 0;
+        }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        // Keep the forecasts that are usable and belong to a location we asked for.  Anything
+        // else, like a city the group endpoint no longer knows, is fetched on its own.
+        int fetched = 0;
+        for (int i = 0; i < parsed; i++) {
+            ForecastRowBuffer buffer = mGroupBuffers[i];
+            String location = locationsByCityId.remove(buffer.cityId);
+            if (location == null || buffer.messageCode != HttpURLConnection.HTTP_OK) {
+                continue;
+            }
+            // Swap the buffer into the next kept slot so kept forecasts stay contiguous
+            mGroupBuffers[i] = mGroupBuffers[fetched];
+            mGroupBuffers[fetched] = buffer;
+            mGroupLocations[fetched] = location;
+            fetched++;
+        }
+        return fetched;
+    }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+    private static ThreadPoolExecutor newExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(SYNC_POOL_SIZE, SYNC_POOL_SIZE,
+                SYNC_POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // Periodic syncs are hours apart, so don't keep idle threads around between them
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+    /**
+     * Fetches and stores the forecast for one location, and records its status.  Runs on the
+     * worker pool, so it must only touch the given worker's state.
+     *
+     * @return true if any stored row changed
+     */
+    private boolean syncLocation(LocationWorker worker, String locationSetting,
+                                 int julianStartDay, SyncResult syncResult) {
+        // The validators describe what is in the database.  If today's row is missing (the
+        // data was cleared, or the database was recreated) download everything again.
+        if (!hasTodaysForecast(locationSetting)) {
+            mValidatorStore.clear(locationSetting);
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        try {
+            switch (worker.fetcher.fetchWithRetry(locationSetting, julianStartDay, worker.buffer,
+                    mRetryPolicy, mBreaker, syncResult)) {
+                case ForecastFetcher.RESULT_NOT_MODIFIED:
+                case ForecastFetcher.RESULT_UNCHANGED:
+                    // What we have stored is still current, so there is nothing to write and
+                    // nobody to tell.
+                    Log.d(LOG_TAG, "Sync Complete for " + locationSetting + ". Forecast unchanged");
+                    setLocationStatus(getContext(), locationSetting, LOCATION_STATUS_OK);
+                    mFreshness.markSynced(locationSetting, System.currentTimeMillis());
+                    return false;
+                default:
+                    break;
+            }
+            if (!getWeatherDataFromBuffer(worker, worker.buffer, locationSetting, julianStartDay,
+                    syncResult)) {
+                return false;
+            }
+            worker.fetcher.saveValidators(locationSetting, julianStartDay);
+            mFreshness.markSynced(locationSetting, System.currentTimeMillis());
+            return worker.diff.hasChanges();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            setLocationStatus(getContext(), locationSetting, LOCATION_STATUS_SERVER_DOWN);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+            setLocationStatus(getContext(), locationSetting, LOCATION_STATUS_SERVER_INVALID);
+        }
+        return false;
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * Stores a forecast that was downloaded by a group request.  Runs on the worker pool.
+     *
+     * @return true if any stored row changed
+     */
+    private boolean storeLocation(LocationWorker worker, ForecastRowBuffer fetched,
+                                  String locationSetting, int julianStartDay,
+                                  SyncResult syncResult) {
+        // The stored validators describe a different response now, so don't trust them
+        mValidatorStore.clear(locationSetting);
+        if (!getWeatherDataFromBuffer(worker, fetched, locationSetting, julianStartDay,
+                syncResult)) {
+            return false;
+        }
+        mFreshness.markSynced(locationSetting, System.currentTimeMillis());
+        return worker.diff.hasChanges();
+    }
 
-                //if its today use it for android wear watchface
-//                if(i==0)
-//                    sendTodayForecast(high, low,weatherId);
+    /**
+     * @return true if the database holds a forecast for today for the location
+     */
+    private boolean hasTodaysForecast(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry._ID}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 
+    /**
+     * Take the forecast parsed into a {@link ForecastRowBuffer} and store the days that changed,
+     * using the worker's diff.
+     *
+     * @param julianStartDay the local julian day of the first row
+     * @param syncResult receives the number of inserted, updated and unchanged rows
+     * @return true if the forecast was stored
+     */
+    private boolean getWeatherDataFromBuffer(LocationWorker worker, ForecastRowBuffer buffer,
+                                             String locationSetting, int julianStartDay,
+                                             SyncResult syncResult) {
+        ForecastDiff diff = worker.diff;
+
+        // do we have an error?
+        switch (buffer.messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                setLocationStatus(getContext(), locationSetting, LOCATION_STATUS_INVALID);
+                return false;
+            default:
+                setLocationStatus(getContext(), locationSetting, LOCATION_STATUS_SERVER_DOWN);
+                return false;
+        }
 
-                ContentValues weatherValues = new ContentValues();
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        long[] dates = new long[buffer.size()];
+        for (int i = 0; i < buffer.size(); i++) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            dates[i] = dayTime.setJulianDay(julianStartDay + i);
+        }
 
-                cVVector.add(weatherValues);
-            }
+        if (dates.length == 0) {
+            // Nothing is written, and the diff mustn't report the last location's changes
+            diff.compare(buffer, ForecastDiff.BACK_REFERENCED_LOCATION_ID, dates, null);
+            Log.d(LOG_TAG, "Sync Complete for " + locationSetting + ". Forecast was empty");
+            setLocationStatus(getContext(), locationSetting, LOCATION_STATUS_OK);
+            return true;
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWearable();
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        // Only write the days that differ from what is stored.  The rows take the location's row
+        // ID from the location stored in the same write, so it isn't looked up first.  Once a
+        // location has been synced its row ID is usually cached, and the stored rows are read
+        // by it without touching the location table.
+        long locationId = LocationIdCache.getId(locationSetting);
+        Cursor stored = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                ForecastDiff.STORED_PROJECTION,
+                locationId != -1
+                        ? ForecastDiff.STORED_SELECTION
+                        : ForecastDiff.STORED_BY_SETTING_SELECTION,
+                new String[] {locationId != -1 ? Long.toString(locationId) : locationSetting},
+                null);
+        try {
+            diff.compare(buffer, ForecastDiff.BACK_REFERENCED_LOCATION_ID, dates, stored);
+        } finally {
+            if (stored != null) {
+                stored.close();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         }
-    }
 
-    private void updateWearable(){
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+        // Past days are left alone here.  The first sync of each day moves them into the
+        // history, with compactHistory.
 
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
+        try {
+            writeRows(getContext().getContentResolver(), diff,
+                    getLocationValues(locationSetting, buffer.cityId, buffer.cityName,
+                            buffer.cityLatitude, buffer.cityLongitude));
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            Log.e(LOG_TAG, "Error storing forecast for " + locationSetting, e);
+            syncResult.databaseError = true;
+            return false;
+        }
 
+        syncResult.stats.numInserts += diff.getInsertCount();
+        syncResult.stats.numUpdates += diff.getUpdateCount();
+        syncResult.stats.numSkippedEntries += diff.getUnchangedCount();
 
-            Log.d("TAG","SENDING WEATHER DATA" );
-            // Create a DataMap object and send it to the data layer
-            DataMap dataMap = new DataMap();
-            dataMap.putLong("time", new Date().getTime());
-            dataMap.putDouble("high", cursor.getDouble(INDEX_MAX_TEMP));
-            dataMap.putDouble("low", cursor.getDouble(INDEX_MIN_TEMP));
-            dataMap.putLong("id", cursor.getInt(INDEX_WEATHER_ID));
-            //Requires a new thread to avoid blocking the UI
-            new SendToDataLayerThread(WEARABLE_DATA_PATH, dataMap).start();
+        Log.d(LOG_TAG, "Sync Complete for " + locationSetting + ". "
+                + diff.getInsertCount() + " Inserted, "
+                + diff.getUpdateCount() + " Updated, "
+                + diff.getUnchangedCount() + " Unchanged");
+        setLocationStatus(getContext(), locationSetting, LOCATION_STATUS_OK);
+        return true;
+    }
 
+    /**
+     * Writes the location and the rows collected by the diff in one transaction, with one
+     * insert_rows call, which binds the rows as they are.  Without ContentResolver.call they go as
+     * one applyBatch.  A sync of a location crosses into the provider twice: once to read the
+     * stored rows and once here.
+     */
+    static void writeRows(ContentResolver resolver, ForecastDiff diff, ContentValues location)
+            throws RemoteException, OperationApplicationException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            callInsertRows(resolver, diff, location);
+        } else {
+            resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, diff.getOperations(location));
         }
     }
 
-    class SendToDataLayerThread extends Thread {
-        String path;
-        DataMap dataMap;
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void callInsertRows(ContentResolver resolver, ForecastDiff diff,
+                                       ContentValues location) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.WeatherEntry.EXTRA_LOCATION, location);
+        extras.putParcelable(WeatherContract.WeatherEntry.EXTRA_ROWS, diff.getInsertRows());
+        extras.putParcelable(WeatherContract.WeatherEntry.EXTRA_UPDATE_ROWS, diff.getUpdateRows());
+        resolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_INSERT_ROWS, null, extras);
+    }
 
-        // Constructor for sending data objects to the data layer
-        SendToDataLayerThread(String p, DataMap data) {
-            path = p;
-            dataMap = data;
+    /**
+     * The per-location sync state.  There is one for each pool thread, and a task takes one for
+     * the length of its location, so buffers are reused across syncs without being shared.
+     */
+    private static class LocationWorker {
+        final ForecastRowBuffer buffer = new ForecastRowBuffer();
+        final ForecastFetcher fetcher;
+        final ForecastDiff diff = new ForecastDiff();
+
+        LocationWorker(ForecastValidatorStore validatorStore) {
+            fetcher = new ForecastFetcher(validatorStore);
         }
+    }
 
-        public void run() {
-            // Construct a DataRequest and send over the data layer
-            PutDataMapRequest putDMR = PutDataMapRequest.create(path);
-            putDMR.getDataMap().putAll(dataMap);
-            PutDataRequest request = putDMR.asPutDataRequest();
-            DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mGoogleApiClient, request).await();
-            Log.d(LOG_TAG,"THREAD WEATHER DATA" );
-            if (result.getStatus().isSuccess()) {
-                Log.v(LOG_TAG, "DataMap: " + dataMap + " sent successfully to data layer ");
-            } else {
-                // Log an error
-                Log.v(LOG_TAG, "ERROR: failed to send DataMap to data layer");
-            }
+    private void updateWearable(TodayForecast today) {
+        Log.d(LOG_TAG, "Sending weather data to the wearable");
+        // Construct a DataRequest and send it over the data layer.  This runs on the fan-out
+        // pool, so it can wait for the result, but no longer than its timeout.
+        PutDataMapRequest putDMR = PutDataMapRequest.create(WEARABLE_DATA_PATH);
+        DataMap dataMap = putDMR.getDataMap();
+        dataMap.putLong("time", new Date().getTime());
+        dataMap.putDouble("high", today.maxTemp);
+        dataMap.putDouble("low", today.minTemp);
+        dataMap.putLong("id", today.weatherId);
+        PutDataRequest request = putDMR.asPutDataRequest();
+        DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                .await(WEARABLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (result.getStatus().isSuccess()) {
+            Log.v(LOG_TAG, "DataMap: " + dataMap + " sent successfully to data layer ");
+        } else {
+            // Log an error
+            Log.v(LOG_TAG, "ERROR: failed to send DataMap to data layer");
         }
     }
 /*
@@ -490,25 +766,32 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                });
     }
 */
-    private void updateWidgets() {
-        Context context = getContext();
+    /**
+     * Tells the widgets and Muzei to show the stored forecast of the preferred location again,
+     * for when the preferred location changed to one whose forecast is stored already.
+     */
+    public static void notifyDataUpdated(Context context) {
+        updateWidgets(context);
+        updateMuzei(context);
+    }
+
+    private static void updateWidgets(Context context) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(TodayForecast today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -523,18 +806,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today.isToday()) {
+                    int weatherId = today.weatherId;
+                    double high = today.maxTemp;
+                    double low = today.minTemp;
+                    String desc = today.shortDesc;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -610,59 +886,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Builds the values of a location for the weather database.  The provider inserts them only
+     * if the location isn't stored yet.
      *
      * @param locationSetting The location string used to request updates from the server.
+     * @param cityId OpenWeatherMap's id for the city, or 0 if unknown
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
-     * @return the row ID of the added location.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    static ContentValues getLocationValues(String locationSetting, long cityId, String cityName,
+                                           double lat, double lon) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        if (cityId != 0) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
         }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        return locationValues;
     }
 
     /**
@@ -689,8 +937,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        // Bursts of requests, and requests for a location that is being synced right now, are
+        // folded into one sync
+        SyncCoalescer.getInstance(context).requestSync(Utility.getPreferredLocation(context));
+    }
+
+    /**
+     * Asks the framework for a sync right away.  Called by the {@link SyncCoalescer}.
+     *
+     * @param expedited whether the sync should run ahead of other pending syncs, for data too
+     *                  stale to show without waiting for it
+     */
+    static void requestSync(Context context, boolean expedited) {
         Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, expedited);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
@@ -739,7 +999,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        new AdaptiveSyncScheduler(context).scheduleNext();
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -754,20 +1014,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        // A force stop clears the scheduled sync along with the app's other jobs
+        new AdaptiveSyncScheduler(context).ensureScheduled();
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
+     * Sets the status of a location into shared preference.  The status of the preferred location
+     * is also written to the key the UI listens to.  This function should not be called from
      * the UI thread because it uses commit to write to the shared preferences.
      * @param c Context to get the PreferenceManager from.
+     * @param locationSetting The location the status belongs to
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
+    static private void setLocationStatus(Context c, String locationSetting,
+                                          @LocationStatus int locationStatus){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        spe.putInt(Utility.getLocationStatusKey(c, locationSetting), locationStatus);
+        if (locationSetting.equals(Utility.getPreferredLocation(c))) {
+            spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        }
         spe.commit();
     }
-
-
 }
\ No newline at end of file
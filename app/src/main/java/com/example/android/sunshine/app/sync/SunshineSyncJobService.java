@@ -0,0 +1,32 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.ContentResolver;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Runs the job {@link AdaptiveSyncScheduler} schedules.  The sync itself is still done by the
+ * sync adapter, so the job only asks for it, as the periodic sync would, and is finished at once.
+ * The next job is scheduled before the sync is asked for, so that the chain goes on when the sync
+ * doesn't run, say because auto-sync is off.  The sync schedules it again from when it ends.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SunshineSyncJobService extends JobService {
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        new AdaptiveSyncScheduler(this).scheduleNext();
+        ContentResolver.requestSync(SunshineSyncAdapter.getSyncAccount(this),
+                getString(R.string.content_authority), new Bundle());
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Turns bursts of {@link SunshineSyncAdapter#syncImmediately} calls into one expedited sync.
+ *
+ * A request for a location synced within the freshness TTL is dropped.  Any other request waits
+ * out a debounce window, and every request made during the window joins it, so a settings change
+ * and a few wearable /sync_now messages in a row cost one download.  A request for a location
+ * the running sync is already fetching joins that fetch instead of asking for another sync once
+ * it is done.  The sync is only expedited if a pending location is hard-stale; soft-stale ones
+ * are still shown as stored and refreshed by a sync that can wait.
+ *
+ * The counters add up: every request is either still pending, skipped as fresh, coalesced into
+ * another one, or the one that executed a sync.
+ */
+public class SyncCoalescer {
+    interface SyncRequester {
+        /**
+         * Asks the framework for a sync, on the main thread.
+         */
+        void requestSync(boolean expedited);
+    }
+
+    private static SyncCoalescer sInstance;
+
+    private final long mDebounceMillis;
+    private final ForecastFreshness mFreshness;
+    private final SyncRequester mSyncRequester;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Locations the running sync fetches, empty when no sync is running
+    private final Set<String> mInFlight = new HashSet<>();
+    // Locations of the requests waiting out the debounce window
+    private final Set<String> mPending = new HashSet<>();
+    private int mPendingRequests;
+    // Whether a pending location is hard-stale
+    private boolean mPendingExpedited;
+
+    private long mRequested;
+    private long mFresh;
+    private long mCoalesced;
+    private long mExecuted;
+
+    /**
+     * @param debounceMillis how long a request waits for others to join it
+     */
+    SyncCoalescer(long debounceMillis, ForecastFreshness freshness,
+                  SyncRequester syncRequester) {
+        mDebounceMillis = debounceMillis;
+        mFreshness = freshness;
+        mSyncRequester = syncRequester;
+    }
+
+    public static synchronized SyncCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new SyncCoalescer(
+                    appContext.getResources().getInteger(R.integer.sync_debounce_millis),
+                    new ForecastFreshness(appContext),
+                    new SyncRequester() {
+                        @Override
+                        public void requestSync(boolean expedited) {
+                            SunshineSyncAdapter.requestSync(appContext, expedited);
+                        }
+                    });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Asks for a sync of the location, unless it is fresh or a sync that covers it is running or
+     * about to be requested.
+     */
+    public synchronized void requestSync(String locationSetting) {
+        mRequested++;
+        int state = mFreshness.getState(locationSetting, System.currentTimeMillis());
+        if (state == ForecastFreshness.STATE_FRESH) {
+            mFresh++;
+            return;
+        }
+        if (mInFlight.contains(locationSetting)) {
+            mCoalesced++;
+            return;
+        }
+        mPending.add(locationSetting);
+        mPendingExpedited |= state == ForecastFreshness.STATE_HARD_STALE;
+        if (mPendingRequests++ == 0) {
+            mHandler.postDelayed(mFlush, mDebounceMillis);
+        }
+    }
+
+    /**
+     * Called by the sync adapter before it fetches the locations.
+     */
+    synchronized void onSyncStarted(Collection<String> locations) {
+        mInFlight.clear();
+        mInFlight.addAll(locations);
+    }
+
+    synchronized void onSyncFinished() {
+        mInFlight.clear();
+    }
+
+    private void flush() {
+        boolean expedited;
+        synchronized (this) {
+            if (mPendingRequests == 0) {
+                return;
+            }
+            // A sync that started during the window may already cover every pending location
+            boolean covered = mInFlight.containsAll(mPending);
+            int pendingRequests = mPendingRequests;
+            expedited = mPendingExpedited;
+            mPending.clear();
+            mPendingRequests = 0;
+            mPendingExpedited = false;
+            if (covered) {
+                mCoalesced += pendingRequests;
+                return;
+            }
+            mExecuted++;
+            mCoalesced += pendingRequests - 1;
+        }
+        mSyncRequester.requestSync(expedited);
+    }
+
+    public synchronized long getRequestedCount() {
+        return mRequested;
+    }
+
+    public synchronized long getFreshCount() {
+        return mFresh;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    public synchronized long getExecutedCount() {
+        return mExecuted;
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Sync requests: " + mRequested + " requested, " + mFresh + " fresh, "
+                + mCoalesced + " coalesced, " + mExecuted + " executed, " + mPendingRequests
+                + " pending (debounce " + mDebounceMillis + " ms)");
+        writer.println("  In flight: " + mInFlight);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Picks the time until the next periodic sync from what the last syncs found and the state of
+ * the device.  A forecast that keeps changing is synced more often than one that doesn't, nights
+ * and devices with nothing showing the weather sync less, and syncs are more frequent while they
+ * are cheap, on an unmetered network or on the charger.
+ *
+ * This only does arithmetic, so the simulation in the tests can replay it against a recorded
+ * week without a device.
+ */
+class SyncSchedulePolicy {
+    // Bounds of the interval, in seconds
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // How much of the change rate the latest sync makes up
+    static final double CHANGE_RATE_WEIGHT = 0.3;
+    // The change rate to start from, which keeps the base interval
+    static final double DEFAULT_CHANGE_RATE = 0.5;
+
+    // Local hours during which nobody is expected to look at the forecast
+    private static final int NIGHT_START_HOUR = 23;
+    private static final int NIGHT_END_HOUR = 6;
+
+    /**
+     * @param changeRate the change rate before the sync
+     * @param changedFraction the fraction of the stored days the sync inserted or updated
+     * @return the change rate after the sync, a moving average of the fractions
+     */
+    static double updateChangeRate(double changeRate, double changedFraction) {
+        return changeRate + CHANGE_RATE_WEIGHT * (changedFraction - changeRate);
+    }
+
+    /**
+     * @param baseInterval the interval in seconds at the default change rate, by day, with the
+     *                     forecast showing somewhere and syncs costing what they usually do
+     * @param changeRate from 0, nothing changes between syncs, to 1, every day changes
+     * @param hourOfDay the local hour, from 0 to 23
+     * @param surfacesVisible whether a widget or a watch face shows the forecast
+     * @return the interval until the next sync in seconds
+     */
+    static int getInterval(int baseInterval, double changeRate, int hourOfDay,
+                           boolean unmetered, boolean charging, boolean surfacesVisible) {
+        // Twice the base interval for a forecast that never changes, half of it for one that
+        // changes completely every time
+        double interval = baseInterval * Math.pow(2, 1 - 2 * changeRate);
+        if (isNight(hourOfDay)) {
+            interval *= 2;
+        }
+        if (!surfacesVisible) {
+            interval *= 1.5;
+        }
+        if (unmetered) {
+            interval *= 0.75;
+        }
+        if (charging) {
+            interval *= 0.75;
+        }
+        return (int) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /**
+     * @return how early the sync scheduled for the interval may run, in seconds
+     */
+    static int getFlexTime(int interval) {
+        return interval / 3;
+    }
+
+    private static boolean isNight(int hourOfDay) {
+        return hourOfDay >= NIGHT_START_HOUR || hourOfDay < NIGHT_END_HOUR;
+    }
+}